@@ -6,7 +6,11 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import pathfinders.BatchSearch;
+import pathfinders.PairPathFinder;
 import pathfinders.PathFinder;
 import structures.Configuration;
 import structures.Edge;
@@ -14,7 +18,9 @@ import structures.EdgeLibrary;
 import structures.Graph;
 import structures.NodeLibrary;
 import structures.Path;
+import structures.PathCountTable;
 import structures.PathManager;
+import structures.PathSink;
 import structures.Subgraph;
 import utilities.CytoscapePrinter;
 import utilities.GamsPrinter;
@@ -38,13 +44,19 @@ public class InfluenzaMain {
 		Graph g=null, gOrig = null;
 		try {
 			config = Configuration.readConfigFile(args[0]);
-			g = config.buildGraph();
-			gOrig= config.buildGraph(); ///Graph.createFromEdgeLibrary(config.edgeLibrary());
+			// filter, and remove self loops and edgeless nodes, in one go.
+			// the background and search graphs start out the same, so
+			// build once and share it; g is replaced by the path graph later.
+			gOrig = config.buildGraph(true);
+			g = gOrig;
 		} catch (Exception e) {
 			System.err.println(e.getMessage());
 			e.printStackTrace();
 			return;
 		}
+		// save the background network for the next run, if requested
+		// (just a cache: failing to write it doesn't stop the run)
+		config.writeSnapshot(gOrig, true);
 
 		// check GAMS prefix
 		String gamsPref = config.getGamsFileName();
@@ -53,13 +65,6 @@ public class InfluenzaMain {
 			return;
 		}
 
-		// remove self loops and edgeless nodes
-		gOrig = gOrig.removeSelfLoops();
-		gOrig = gOrig.removeEdgeless();
-
-		g = g.removeEdgeless();
-		g = g.removeSelfLoops();
-		
 
 		NodeLibrary libe = config.nodeLibrary();
 		EdgeLibrary elibe = config.edgeLibrary();
@@ -68,8 +73,8 @@ public class InfluenzaMain {
 		System.out.println(libe.toString());
 		System.out.println(elibe.toString());
 		
-		System.out.format("Read graph with %d nodes and %d edges.\n", gOrig.nodes().size(), gOrig.edges().size());
-		System.out.format("Auto-filtered to graph with %d nodes and %d edges.\n", g.nodes().size(), g.edges().size());
+		System.out.format("Read graph with %d nodes and %d edges.\n", gOrig.nodeCount(), gOrig.edgeCount());
+		System.out.format("Auto-filtered to graph with %d nodes and %d edges.\n", g.nodeCount(), g.edgeCount());
 		
 		System.out.println("Summary of background network:");
 		// summarize features in background network
@@ -79,22 +84,101 @@ public class InfluenzaMain {
 		// run all pathfinders
 		ArrayList<PathFinder> pfs = config.pathFinders();
 
-		PathManager paths = new PathManager();
+		// cytoscape
+		// Cytoscape printing - do I strip non-alphanumeric characters from node names?
+		boolean cleanMode=(config.getGamsLabelMode()==LabelMode.STRIP);
+
+		PathManager paths = config.pathManager();
 		// find paths?
 		if (DO_PATHFINDING) {
+			PrintStream countOut = null;
 			try {
+				// just count the paths?
+				if (config.countPaths()) {
+					countOut = new PrintStream(String.format("%s_path_counts.tab", config.getOutputPrefix()));
+					countOut.format("#pathfinder\tsource\ttarget\tlength\tpaths\tmethod\n");
+				}
+				
+				// freeze the filtered network into compact form for searching.
+				// each pathfinder only gets the part it can find paths in;
+				// the whole network is only frozen if someone needs it.
+				Graph fullSearchGraph = null;
+				
+				// search once for the pathfinders that can share a search.
+				// they need the whole network.
+				Map<PathFinder, PathManager> batched = null;
+				if (config.batchSearch() && countOut == null) {
+					BatchSearch batch = new BatchSearch(pfs);
+					if (batch.pathFinders().size() > 1) {
+						fullSearchGraph = config.searchGraph(g);
+						if (config.compactPaths()) {
+							// each pathfinder's paths go straight to its own compact store
+							batched = new LinkedHashMap<PathFinder, PathManager>();
+							LinkedHashMap<PathFinder, PathSink> sinks = new LinkedHashMap<PathFinder, PathSink>();
+							for (PathFinder pf : batch.pathFinders()) {
+								PathManager found = config.pathManager();
+								batched.put(pf, found);
+								sinks.put(pf, found);
+							}
+							batch.findPaths(fullSearchGraph, sinks);
+						} else {
+							batched = batch.findPaths(fullSearchGraph);
+						}
+						System.out.format("Searched for %d pathfinders at once.\n", batched.size());
+					}
+				}
+				
 				for (PathFinder pf : pfs) {
-					PathManager found = pf.findPaths(g);
+					if (batched != null && batched.containsKey(pf)) {
+						PathManager found = batched.get(pf);
+						System.out.format("Applied %s: %d paths\n", pf.toString(), found.size());
+						paths.addAll(found);
+						continue;
+					}
+					
+					Graph relevant = pf.relevantSubgraph(g);
+					Graph searchGraph;
+					if (relevant == g) {
+						if (fullSearchGraph == null) fullSearchGraph = config.searchGraph(g);
+						searchGraph = fullSearchGraph;
+					} else {
+						System.out.format("Pruned %d nodes and %d edges not on any path for %s; searching %d nodes and %d edges.\n", 
+								g.nodeCount() - relevant.nodeCount(), g.edgeCount() - relevant.edgeCount(), 
+								pf.name(), relevant.nodeCount(), relevant.edgeCount());
+						searchGraph = config.searchGraph(relevant);
+					}
+					if (countOut != null) {
+						countPaths(config, pf, searchGraph, countOut);
+						continue;
+					}
+					
+					PathManager found;
+					if (config.compactPaths()) {
+						// keep the paths in compact form
+						found = config.pathManager();
+						pf.findPaths(searchGraph, found);
+					} else {
+						found = pf.findPaths(searchGraph);
+					}
 					//PathManager found = pf.findPathsIterative(g, 4, 0.75);
 					System.out.format("Applied %s: %d paths\n", pf.toString(), found.size());
 					paths.addAll(found);
 				}
-				System.out.format("Total: %d paths\n", paths.size());
+				if (countOut != null) {
+					System.out.format("Wrote path counts to %s_path_counts.tab\n", config.getOutputPrefix());
+				} else {
+					System.out.format("Total: %d paths\n", paths.size());
+				}
 
 			} catch (Exception e) {
 				System.err.println(e.getMessage());
 				e.printStackTrace();
+			} finally {
+				if (countOut != null) countOut.close();
 			}
+			
+			// counting mode stops here
+			if (config.countPaths()) return;
 
 			g = PathManager.makeGraph(paths);
 			// add the subgraphs
@@ -106,7 +190,7 @@ public class InfluenzaMain {
 				g.addAll(edges);
 			}
 			
-			System.out.format("Paths and subgraphs contain %d nodes and %d edges.\n", g.nodes().size(), g.edges().size());
+			System.out.format("Paths and subgraphs contain %d nodes and %d edges.\n", g.nodeCount(), g.edgeCount());
 
 			// summarize features
 			System.out.println(libe.summarize(g.nodes()));
@@ -115,9 +199,6 @@ public class InfluenzaMain {
 
 
 		// cytoscape
-		// Cytoscape printing - do I strip non-alphanumeric characters from node names?
-		boolean cleanMode=(config.getGamsLabelMode()==LabelMode.STRIP);
-
 		if (DO_PATHFINDING) {
 			//CytoscapePrinter.printSif(g, String.format("%s_paths.sif", config.getOutputPrefix()));
 			CytoscapePrinter.printSif(paths, String.format("%s_paths.sif", config.getOutputPrefix()), cleanMode);
@@ -132,6 +213,12 @@ public class InfluenzaMain {
 		GamsPrinter printer = new GamsPrinter(g, gOrig, paths, 
 				config.nodeLibrary(), config.edgeLibrary(), config.subgraphs(), config.pairDirectories());
 		printer.setLabelMode(config.getGamsLabelMode());
+		// path signs, if any pathfinder checked them
+		for (PathFinder pf : config.pathFinders()) {
+			if (pf instanceof PairPathFinder && ((PairPathFinder) pf).signed()) {
+				printer.setPathSigns(true);
+			}
+		}
 
 		// print unique edge IDs
 		boolean cytoV3Format=false;	// Should attribute be tab-delimited file
@@ -194,6 +281,31 @@ public class InfluenzaMain {
 
 	}	
 
+	/**
+	 * Counts the paths a pathfinder would find, prints a summary by depth
+	 * and writes the counts by source, target and length.
+	 * @param config
+	 * @param pf
+	 * @param searchGraph
+	 * @param outStream
+	 */
+	protected static void countPaths(Configuration config, PathFinder pf, Graph searchGraph, 
+			PrintStream outStream) {
+		PathCountTable counts = pf.countPaths(searchGraph, config.countSamples(), config.countExactLimit());
+		if (counts == null) {
+			System.out.format("Can't count paths for %s\n", pf.toString());
+			return;
+		}
+		System.out.format("Counted %s: %d of %d sources estimated\n", pf.toString(), 
+				counts.estimated(), counts.sources().size());
+		for (int d = 1; d <= counts.maxLength(); d++) {
+			System.out.format("\tdepth %d: %.0f paths\n", d, counts.total(d));
+		}
+		System.out.format("\tdeepest search with at most %d paths: %d\n", 
+				config.countExactLimit(), counts.deepestWithin(config.countExactLimit()));
+		counts.print(outStream);
+	}
+	
 	/**
 	 * Prints a text file containing ordered nodes/edges for each path.
 	 * @param config
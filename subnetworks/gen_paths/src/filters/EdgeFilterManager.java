@@ -2,10 +2,13 @@ package filters;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
 
 import structures.Configuration;
 import structures.Edge;
+import structures.EdgeSlots;
 import structures.EdgeLibrary;
 import structures.Feature;
 import structures.Graph;
@@ -26,6 +29,125 @@ public class EdgeFilterManager extends FilterManager<Edge, Filter, EdgeLibrary>
 		return this.library.getValue(item, f);
 	}
 
+	/**
+	 * Returned by extend when no path with these edges can be accepted.
+	 */
+	public static final int REJECT=-1;
+	
+	/**
+	 * Can we tell that a path will be rejected before it's complete? 
+	 * For ALL, AT_MOST_ONE and XOR: once a path is rejected, so is 
+	 * any path that contains its edges.
+	 * @return
+	 */
+	public boolean prunes() {
+		switch(this.setMode) {
+		case ALL: case AT_MOST_ONE: case XOR: return true;
+		default: return false;
+		}
+	}
+	
+	/**
+	 * Checks a path's edges one at a time, as the path is extended.
+	 * Starts with 0 for a path with no edges; each call adds one edge
+	 * and returns the number of accepted edges so far (stops counting at 2,
+	 * which is all the set modes need), or REJECT if no path 
+	 * with these edges can be accepted (see prunes()). 
+	 * 
+	 * A path that isn't rejected still has to pass accept(edges):
+	 * e.g., XOR needs exactly one accepted edge.
+	 * @param accepted	result for the path so far
+	 * @param e	the next edge
+	 * @return
+	 */
+	public int extend(int accepted, Edge e) {
+		switch(this.setMode) {
+		case ALL: 
+			return this.accept(e) ? 0 : REJECT;
+		case AT_MOST_ONE: case XOR:
+			if (!this.accept(e)) return accepted;
+			return accepted == 0 ? 1 : REJECT;
+		case ANY:
+			return (accepted > 0 || this.accept(e)) ? 1 : 0;
+		default: 
+			return 0;
+		}
+	}
+	
+	/**
+	 * A filter manager that accepts the same edges as this one, with
+	 * the answer for each of the graph's edges worked out ahead of time,
+	 * so checking one is a single lookup. (Edges outside the graph
+	 * are still run through the filters.)
+	 * 
+	 * Only for frozen graphs; for any other graph, returns this manager.
+	 * @param g	graph to be searched
+	 * @return
+	 */
+	public EdgeFilterManager compile(Graph g) {
+		if (!g.isFrozen()) return this;
+		return new Compiled(this, g);
+	}
+	
+	/**
+	 * An EdgeFilterManager's answers for the edges of one graph.
+	 * (See compile.)
+	 */
+	protected static class Compiled extends EdgeFilterManager {
+		// the manager we compiled
+		protected final EdgeFilterManager source;
+		protected final Graph g;
+		
+		// accepted edge slots, if g has them (a CompactGraph)
+		protected final EdgeSlots slots;
+		protected final BitSet bits;
+		
+		// ... otherwise, the answer for each edge
+		protected final HashMap<Edge, Boolean> answers;
+		
+		protected Compiled(EdgeFilterManager source, Graph g) {
+			super(source.name, source.filters, source.itemMode, source.setMode, source.library);
+			this.source=source;
+			this.g=g;
+			if (g instanceof EdgeSlots) {
+				this.slots = (EdgeSlots) g;
+				this.bits = new BitSet(this.slots.edgeSlots());
+				for (Edge e : g.edges()) {
+					if (source.accept(e)) this.bits.set(this.slots.slot(e));
+				}
+				this.answers = null;
+			} else {
+				this.slots = null;
+				this.bits = null;
+				this.answers = new HashMap<Edge, Boolean>();
+				for (Edge e : g.edges()) {
+					this.answers.put(e, source.accept(e));
+				}
+			}
+		}
+		
+		@Override
+		public boolean accept(Edge e) {
+			if (this.slots != null) {
+				int k = this.slots.slot(e);
+				if (k >= 0) return this.bits.get(k);
+			} else {
+				Boolean ok = this.answers.get(e);
+				if (ok != null) return ok;
+			}
+			return this.source.accept(e);
+		}
+		
+		/**
+		 * Already compiled for g.
+		 */
+		@Override
+		public EdgeFilterManager compile(Graph g) {
+			if (g == this.g) return this;
+			return this.source.compile(g);
+		}
+	}
+	
 	/**
 	 * Tests each edge for acceptance. Returns
 	 * the subgraph consisting of accepted edges.
@@ -2,9 +2,11 @@ package filters;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 
+import structures.CompactGraph;
 import structures.Configuration;
 import structures.Feature;
 import structures.Graph;
@@ -58,6 +60,84 @@ public class NodeFilterManager extends FilterManager<String, Filter, NodeLibrary
 		return copy;
 	}
 	
+	/**
+	 * A filter manager that accepts the same nodes as this one, with
+	 * the answer for each of the graph's nodes worked out ahead of time.
+	 * Checking a node in the graph is then a single lookup instead of 
+	 * running the filters against the library: a bit per node ID for 
+	 * a CompactGraph, or a set of the accepted nodes otherwise. 
+	 * (Nodes outside the graph are still run through the filters.)
+	 * 
+	 * Only for frozen graphs, since the answers would go stale if the 
+	 * graph changed; for any other graph, returns this manager. 
+	 * Assumes the library doesn't change either.
+	 * @param g	graph to be searched
+	 * @return
+	 */
+	public NodeFilterManager compile(Graph g) {
+		if (!g.isFrozen()) return this;
+		return new Compiled(this, g);
+	}
+	
+	/**
+	 * A NodeFilterManager's answers for the nodes of one graph.
+	 * (See compile.)
+	 */
+	protected static class Compiled extends NodeFilterManager {
+		// the manager we compiled
+		protected final NodeFilterManager source;
+		protected final Graph g;
+		
+		// accepted node IDs, if g is a CompactGraph
+		protected final CompactGraph ids;
+		protected final BitSet bits;
+		
+		// ... otherwise, accepted nodes
+		protected final HashSet<String> accepted;
+		
+		protected Compiled(NodeFilterManager source, Graph g) {
+			super(source.name, source.filters, source.itemMode, source.setMode, source.library);
+			this.source=source;
+			this.g=g;
+			if (g instanceof CompactGraph) {
+				this.ids = (CompactGraph) g;
+				this.bits = new BitSet(this.ids.size());
+				for (int u = 0; u < this.ids.size(); u++) {
+					if (source.accept(this.ids.name(u))) this.bits.set(u);
+				}
+				this.accepted = null;
+			} else {
+				this.ids = null;
+				this.bits = null;
+				this.accepted = new HashSet<String>();
+				for (String n : g.nodes()) {
+					if (source.accept(n)) this.accepted.add(n);
+				}
+			}
+		}
+		
+		@Override
+		public boolean accept(String node) {
+			if (this.ids != null) {
+				int u = this.ids.id(node);
+				if (u >= 0) return this.bits.get(u);
+			} else {
+				if (this.accepted.contains(node)) return true;
+				if (this.g.contains(node)) return false;
+			}
+			return this.source.accept(node);
+		}
+		
+		/**
+		 * Already compiled for g.
+		 */
+		@Override
+		public NodeFilterManager compile(Graph g) {
+			if (g == this.g) return this;
+			return this.source.compile(g);
+		}
+	}
+	
 	/**
 	 * Reads a NodeFilterManager from a line, given a Configuration.
 	 * 
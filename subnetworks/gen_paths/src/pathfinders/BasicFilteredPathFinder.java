@@ -3,6 +3,7 @@ package pathfinders;
 import java.util.Arrays;
 
 import structures.Configuration;
+import structures.Graph;
 import structures.PairDirectory;
 import structures.Path;
 import exceptions.InvalidValueException;
@@ -21,16 +22,21 @@ public class BasicFilteredPathFinder extends BasicPathFinder {
 	
 	protected NodeFilterManager tester; 
 	
+	// the tester, compiled for the graph we're searching
+	protected NodeFilterManager tests;
+	
 	public BasicFilteredPathFinder(String name, NodeFilterManager start, 
 			NodeFilterManager end, int depth, NodeFilterManager tester) {
 		super(name, start, end, depth);
 		this.tester=tester;
+		this.tests=tester;
 	}
 	
 	public BasicFilteredPathFinder(String name, NodeFilterManager start, 
 			NodeFilterManager end, int depth, boolean stopAtFirstEndpoint, NodeFilterManager tester) {
 		super(name, start, end, depth, stopAtFirstEndpoint);
 		this.tester=tester;
+		this.tests=tester;
 	}
 	
 	
@@ -38,6 +44,7 @@ public class BasicFilteredPathFinder extends BasicPathFinder {
 			NodeFilterManager end, int depth, boolean stopAtFirstEndpoint, PairDirectory pairs, NodeFilterManager tester) {
 		super(name, start, end, depth, stopAtFirstEndpoint, pairs);
 		this.tester=tester;
+		this.tests=tester;
 	}
 
 	/**
@@ -66,13 +73,22 @@ public class BasicFilteredPathFinder extends BasicPathFinder {
 		}
 	}
 	
+	/**
+	 * Also compiles the tester.
+	 */
+	@Override
+	protected void prepare(Graph g) {
+		super.prepare(g);
+		this.tests = this.tester.compile(g);
+	}
+	
 	/**
 	 * Accept if the nodefiltermanager accepts.
 	 * @param p
 	 * @return
 	 */
 	protected boolean filterAccept(Path p) {
-		return this.tester.accept(p.nodes());		
+		return this.tests.accept(p.nodes());		
 	}
 	
 	public String toString() {
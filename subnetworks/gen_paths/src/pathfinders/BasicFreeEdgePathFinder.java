@@ -1,8 +1,11 @@
 package pathfinders;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
 
 import structures.Configuration;
+import structures.Graph;
 import structures.PairDirectory;
 import structures.Path;
 import exceptions.InvalidValueException;
@@ -90,6 +93,32 @@ public class BasicFreeEdgePathFinder extends BasicPathFinder {
 		}
 	}
 	
+	/**
+	 * Free edges don't count against the depth, so paths can be longer
+	 * than it. Keep the whole graph.
+	 */
+	@Override
+	public Set<String> relevantNodes(Graph g) {
+		return null;
+	}
+	
+	/**
+	 * Can't count paths, for the same reason.
+	 */
+	@Override
+	protected Collection<String> countStartNodes(Graph g) {
+		return null;
+	}
+	
+	/**
+	 * Free edges don't count against the depth, so
+	 * can't share a search.
+	 */
+	@Override
+	protected boolean batchable() {
+		return false;
+	}
+	
 	/**
 	 * Accept if the edgefiltermanager accepts the last edge.
 	 * Don't accept if empty.
@@ -4,13 +4,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import structures.Configuration;
 import structures.Graph;
 import structures.PairDirectory;
 import structures.Path;
 import structures.PathManager;
-import utilities.DebugTools;
+import structures.PathSink;
 import exceptions.InvalidValueException;
 import filters.EdgeFilterManager;
 import filters.NodeFilterManager;
@@ -31,6 +32,9 @@ import filters.NodeFilterManager;
 public class BasicPathFinder extends PathFinder {	
 
 	protected NodeFilterManager start, end;
+	
+	// the end manager, compiled for the graph we're searching (see prepare)
+	protected NodeFilterManager ends;
 	protected final int depth;
 	
 	// optional PairDirectory for direction filtering
@@ -57,6 +61,7 @@ public class BasicPathFinder extends PathFinder {
 		this.name=name;
 		this.start=start;
 		this.end=end;
+		this.ends=end;
 		this.depth=depth;
 	}
 
@@ -97,36 +102,53 @@ public class BasicPathFinder extends PathFinder {
 	 * The basic PathFinder paths start with items in the "start" set
 	 * and end with an item in the "end" set. 
 	 * @param g	background network graph
-	 * @return	pathmanager containing paths found in the supplied graph
+	 * @param sink	receives the paths found in the supplied graph
 	 */
-	public PathManager findPaths(Graph g) {
-		PathManager found = new PathManager();		
-
+	public void findPaths(Graph g, PathSink sink) {
 		// stop if depth==0
-		if (this.depth==0) return found;
+		if (this.depth==0) return;
 
 		// get the start nodes
 		List<String> startNodes = start.apply(g.nodes());
 
-		// search for each start node
-		for (String node : startNodes) {	
-			if (!g.contains(node)) {
-				if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
-				continue;		
-			}
-
-			PathManager npaths = this.findPaths(g, node, this.depth);
-
-			if (DebugTools.DEBUG && npaths.size() > 0) {
-				System.out.println(String.format("Found %d paths for starting node %s.", 
-						npaths.size(), node));
-			}
-
-			// npaths is null if node not in graph
-			if (npaths != null) found.addAll(npaths);			
-		}
-
-		return found;
+		// search from each start node
+		this.searchAll(g, startNodes, this.depth, sink);
+	}
+	
+	/**
+	 * Nodes on some walk from a start node to an end node within the depth.
+	 */
+	@Override
+	public Set<String> relevantNodes(Graph g) {
+		return relevantNodes(g, start.apply(g.nodes()), end.apply(g.nodes()), this.depth);
+	}
+	
+	@Override
+	protected Collection<String> countStartNodes(Graph g) {
+		return start.apply(g.nodes());
+	}
+	
+	/**
+	 * Finds the graph's end nodes once, so verify doesn't run
+	 * the end filters at every step.
+	 */
+	@Override
+	protected void prepare(Graph g) {
+		super.prepare(g);
+		this.ends = this.end.compile(g);
+	}
+	
+	@Override
+	protected int countDepth() {
+		return this.depth;
+	}
+	
+	/**
+	 * Unless it collapses paths.
+	 */
+	@Override
+	protected boolean batchable() {
+		return this.collapseMode==CollapseMode.NO;
 	}
 	
 	/**
@@ -174,7 +196,7 @@ public class BasicPathFinder extends PathFinder {
 		
 		// is final node in the end set? 
 		String last = p.getNode(-1);
-		boolean isEndpoint = this.end.accept(last);
+		boolean isEndpoint = this.ends.accept(last);
 
 		// if yes AND there is at least one edge, save the path.
 		// do we stop or continue?
@@ -0,0 +1,303 @@
+package pathfinders;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import pathfinders.PathFinder.Frame;
+import pathfinders.PathFinder.PathStatus;
+import structures.Edge;
+import structures.Graph;
+import structures.Path;
+import structures.PathManager;
+import structures.PathSink;
+import filters.EdgeFilterManager;
+
+/**
+ * Runs several pathfinders' searches together, so a node that's a start
+ * node for more than one of them is only searched from once.
+ *
+ * From each start node, one depth-first search goes as deep as the deepest
+ * pathfinder that starts there. Each path it reaches is checked by every
+ * pathfinder that would have reached it on its own (each one's verify,
+ * with its own depth left and target-distance pruning), and saved paths go to
+ * that pathfinder. A branch is only explored while some pathfinder still
+ * wants to extend it (and its edge filters don't already reject it).
+ *
+ * Each pathfinder gets the same PathManager it would find by itself:
+ * the shared search tries edges in the same order, and paths are collected
+ * per start node and handed over in the pathfinder's own start node order.
+ *
+ * Only for pathfinders that say they're batchable (see PathFinder.batchable()).
+ * All of them must search the same graph.
+ */
+public class BatchSearch {
+
+	/*
+	 * Pathfinders searched together; at most 64 per group
+	 * (we keep track of which ones are still following a path in a bit mask).
+	 */
+	protected static final int GROUP=64;
+
+	protected final ArrayList<PathFinder> pathFinders = new ArrayList<PathFinder>();
+
+	/**
+	 * @param pfs	pathfinders to search together; those that aren't batchable are left out
+	 */
+	public BatchSearch(Collection<PathFinder> pfs) {
+		for (PathFinder pf : pfs) {
+			if (pf.batchable()) this.pathFinders.add(pf);
+		}
+	}
+
+	/**
+	 * The pathfinders we'll search for.
+	 * @return
+	 */
+	public List<PathFinder> pathFinders() {
+		return this.pathFinders;
+	}
+
+	/**
+	 * Runs all of the searches.
+	 * Start nodes are searched in parallel if the first pathfinder has more than one thread.
+	 * @param g	graph to search (must not change during the search)
+	 * @return	paths found by each pathfinder, in the order given
+	 */
+	public LinkedHashMap<PathFinder, PathManager> findPaths(Graph g) {
+		LinkedHashMap<PathFinder, PathManager> found = new LinkedHashMap<PathFinder, PathManager>();
+		LinkedHashMap<PathFinder, PathSink> sinks = new LinkedHashMap<PathFinder, PathSink>();
+		for (PathFinder pf : this.pathFinders) {
+			PathManager pm = new PathManager();
+			found.put(pf, pm);
+			sinks.put(pf, pm);
+		}
+		this.findPaths(g, sinks);
+		return found;
+	}
+
+	/**
+	 * Runs all of the searches, sending each pathfinder's paths to its own sink
+	 * (e.g. a CompactPathManager), in the same order it would send them itself.
+	 * With one thread, paths are handed over as soon as every start node before
+	 * theirs (in that pathfinder's order) has been searched, so only start nodes
+	 * that come early in the shared order but late in a pathfinder's own order
+	 * are held back.
+	 * @param g	graph to search (must not change during the search)
+	 * @param sinks	a sink for each of our pathfinders
+	 */
+	public void findPaths(Graph g, Map<PathFinder, PathSink> sinks) {
+		for (int from = 0; from < this.pathFinders.size(); from += GROUP) {
+			List<PathFinder> group = this.pathFinders.subList(from, Math.min(from+GROUP, this.pathFinders.size()));
+			this.findPaths(g, group, sinks);
+		}
+	}
+
+	/**
+	 * Searches for one group of pathfinders.
+	 */
+	protected void findPaths(final Graph g, final List<PathFinder> group, Map<PathFinder, PathSink> sinks) {
+		// start node -> bit mask of the pathfinders that start there
+		final LinkedHashMap<String, Long> starts = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < group.size(); i++) {
+			PathFinder pf = group.get(i);
+			pf.prepare(g);
+			// no paths at all at depth 0
+			if (pf.countDepth()==0) continue;
+			for (String node : pf.countStartNodes(g)) {
+				if (!g.contains(node)) continue;
+				Long mask = starts.get(node);
+				starts.put(node, (mask == null ? 0L : mask) | (1L << i));
+			}
+		}
+
+		final Handover handover = new Handover(g, group, sinks, starts.keySet());
+		if (group.get(0).threads() <= 1) {
+			for (Map.Entry<String, Long> start : starts.entrySet()) {
+				handover.add(start.getKey(), this.search(g, group, handover.sinks, start.getKey(), start.getValue()));
+			}
+			return;
+		}
+
+		ArrayList<Callable<PathManager[]>> tasks = new ArrayList<Callable<PathManager[]>>();
+		for (final Map.Entry<String, Long> start : starts.entrySet()) {
+			tasks.add(new Callable<PathManager[]>() {
+				public PathManager[] call() {
+					return search(g, group, handover.sinks, start.getKey(), start.getValue());
+				}
+			});
+		}
+		List<PathManager[]> results = group.get(0).runAll(tasks);
+		int r = 0;
+		for (String node : starts.keySet()) {
+			handover.add(node, results.get(r++));
+		}
+	}
+
+	/**
+	 * Hands each pathfinder's paths to its sink in its own start node order,
+	 * as the shared searches finish. Keeps the results for a start node until
+	 * every pathfinder that starts there has had them.
+	 */
+	protected static class Handover {
+		protected final List<PathFinder> group;
+		protected final PathSink[] sinks;
+		// each pathfinder's searched start nodes, in its order, and the next one it needs
+		protected final ArrayList<ArrayList<String>> order = new ArrayList<ArrayList<String>>();
+		protected final int[] next;
+		// results we're holding on to, by start node
+		protected final HashMap<String, PathManager[]> waiting = new HashMap<String, PathManager[]>();
+
+		protected Handover(Graph g, List<PathFinder> group, Map<PathFinder, PathSink> sinks, Set<String> searched) {
+			this.group = group;
+			this.sinks = new PathSink[group.size()];
+			this.next = new int[group.size()];
+			for (int i = 0; i < group.size(); i++) {
+				PathFinder pf = group.get(i);
+				this.sinks[i] = sinks.get(pf);
+				ArrayList<String> mine = new ArrayList<String>();
+				if (pf.countDepth() > 0) {
+					for (String node : new LinkedHashSet<String>(pf.countStartNodes(g))) {
+						if (searched.contains(node)) mine.add(node);
+					}
+				}
+				this.order.add(mine);
+			}
+		}
+
+		/**
+		 * Takes the results from one start node and hands over
+		 * everything that's now ready.
+		 */
+		protected void add(String start, PathManager[] found) {
+			this.waiting.put(start, found);
+			for (int i = 0; i < this.group.size(); i++) {
+				ArrayList<String> mine = this.order.get(i);
+				while (this.next[i] < mine.size()) {
+					String node = mine.get(this.next[i]);
+					PathManager[] res = this.waiting.get(node);
+					if (res == null) break;
+					if (res[i] != null) {
+						res[i].copyTo(this.sinks[i]);
+						res[i] = null;
+					}
+					this.next[i]++;
+					if (done(res)) this.waiting.remove(node);
+				}
+			}
+			if (done(found)) this.waiting.remove(start);
+		}
+
+		private static boolean done(PathManager[] res) {
+			for (PathManager pm : res) {
+				if (pm != null) return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The shared search from one start node.
+	 * @param g
+	 * @param group
+	 * @param targets	where each pathfinder's paths go in the end
+	 * @param start
+	 * @param mask	pathfinders that start here
+	 * @return	paths found for each pathfinder in the group (null if it doesn't start here)
+	 */
+	protected PathManager[] search(Graph g, List<PathFinder> group, PathSink[] targets, String start, long mask) {
+		int n = group.size();
+		PathManager[] found = new PathManager[n];
+		PathSink[] sinks = new PathSink[n];
+		int[] depths = new int[n];
+		TargetDistances[] bounds = new TargetDistances[n];
+		EdgeFilterManager[][] pruners = new EdgeFilterManager[n][];
+		int[][] tallies = new int[n][];
+
+		Path init = new Path(start);
+		long alive = 0;
+		int maxDepth = 0;
+		for (int i = 0; i < n; i++) {
+			if ((mask & (1L << i)) == 0) continue;
+			PathFinder pf = group.get(i);
+			found[i] = PathFinder.buffer(targets[i]);
+			sinks[i] = pf.filtered(found[i]);
+			depths[i] = pf.countDepth();
+			bounds[i] = pf.targetDistances(g, start, depths[i]);
+			pruners[i] = pf.pruners;
+			if (pruners[i] != null) tallies[i] = new int[pruners[i].length];
+			maxDepth = Math.max(maxDepth, depths[i]);
+
+			// same start as findPaths(g, start, depth)
+			PathStatus verify = pf.verify(init, depths[i]);
+			if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
+				sinks[i].accept(init, pf.name());
+			}
+			if ((verify==PathStatus.CONTINUE || verify==PathStatus.SAVE_AND_CONTINUE)
+					&& PathFinder.inRange(bounds[i], init, depths[i])) {
+				alive |= 1L << i;
+			}
+		}
+		if (alive == 0) return found;
+
+		// stack of frames, and which pathfinders are following each one
+		// (with their edge filter tallies)
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		ArrayDeque<Long> following = new ArrayDeque<Long>();
+		ArrayDeque<int[][]> tallied = new ArrayDeque<int[][]>();
+		stack.push(new Frame(g, init, maxDepth));
+		following.push(alive);
+		tallied.push(tallies);
+		while (!stack.isEmpty()) {
+			Frame top = stack.peek();
+			Edge e = top.next();
+			if (e == null) {
+				stack.pop();
+				following.pop();
+				tallied.pop();
+				continue;
+			}
+
+			Path next = top.path.copyAdd(e);
+			if (next==null) continue;
+
+			// each pathfinder that's still following checks the path,
+			// with the depth it would have left
+			long follow = following.peek(), cont = 0;
+			int[][] before = tallied.peek(), after = new int[n][];
+			int len = next.edgeLength();
+			for (int i = 0; i < n; i++) {
+				if ((follow & (1L << i)) == 0) continue;
+				if (pruners[i] != null) {
+					after[i] = PathFinder.tally(pruners[i], before[i], e);
+					if (after[i] == null) continue;
+				}
+				PathFinder pf = group.get(i);
+				int left = depths[i] - (len-1);
+				PathStatus verify = pf.verify(next, left);
+				if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
+					sinks[i].accept(next, pf.name());
+				}
+				if ((verify==PathStatus.CONTINUE || verify==PathStatus.SAVE_AND_CONTINUE)
+						&& left > 1 && PathFinder.inRange(bounds[i], next, left-1)) {
+					cont |= 1L << i;
+				}
+			}
+
+			if (cont != 0) {
+				stack.push(new Frame(g, next, maxDepth-len));
+				following.push(cont);
+				tallied.push(after);
+			}
+		}
+		return found;
+	}
+
+}
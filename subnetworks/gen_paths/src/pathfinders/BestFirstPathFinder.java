@@ -0,0 +1,341 @@
+package pathfinders;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import structures.Configuration;
+import structures.Continuous;
+import structures.Edge;
+import structures.EdgeLibrary;
+import structures.Feature;
+import structures.Graph;
+import structures.PairDirectory;
+import structures.PairDirectory.PartialOrder;
+import structures.Path;
+import structures.PathCounter;
+import structures.PathSink;
+import structures.ScoredPairDirectory;
+import structures.Value;
+import exceptions.InvalidValueException;
+
+/**
+ * Finds the highest-scoring paths between source-target pairs first,
+ * instead of all of them: a best-first (A*) search that stops after a
+ * quota of paths, or when no path left can reach the minimum score.
+ *
+ * A path's score is the product of its edges' confidences, times the
+ * pair's score if the pairs are a ScoredPairDirectory (SCORED_PAIRS line).
+ * An edge's confidence comes from a continuous edge feature ("count", by default):
+ * if the feature's values are at most 1, they're used as they are;
+ * otherwise, a value v becomes v/(1+v), so an edge seen in 1 record gets 0.5
+ * and one seen in 3 gets 0.75. Missing or negative values (and pair scores) count as 0.
+ *
+ * Paths follow the same rules as in the PairPathFinder: they never visit
+ * a node twice, and they end at the first of the source's targets they reach.
+ *
+ * The search keeps a queue of partial paths from all of the sources, ordered by
+ * the best score each could still reach: its score so far, times the best edge
+ * confidence in the graph for each edge it still needs to reach a target, times
+ * the best score of its source's pairs. That never underestimates, so paths come
+ * off the queue in order of score. Ties go to shorter paths, then the order
+ * they were queued in.
+ *
+ * Always searches in one thread.
+ */
+public class BestFirstPathFinder extends PairPathFinder {
+
+	/*
+	 * Stop after this many paths
+	 */
+	protected final int quota;
+
+	/*
+	 * ... or when no path left can score at least this
+	 */
+	protected final double minScore;
+
+	/*
+	 * Continuous edge feature that gives edge confidences, and
+	 * the library with its values
+	 */
+	protected final Feature confidence;
+	protected final EdgeLibrary libe;
+
+	/*
+	 * Does the feature need to be scaled to (0,1)?
+	 */
+	protected final boolean scale;
+
+	/**
+	 *
+	 * @param name
+	 * @param index	source-target pairs; scores are used if it's a ScoredPairDirectory
+	 * @param depth	maximum path length, in edges
+	 * @param quota	maximum number of paths
+	 * @param minScore	minimum path score
+	 * @param confidence	continuous edge feature that gives edge confidences
+	 * @param libe	edge library with the feature's values
+	 */
+	public BestFirstPathFinder(String name, PairDirectory index, int depth, int quota,
+			double minScore, Feature confidence, EdgeLibrary libe) {
+		super(name, index, depth);
+		this.quota=quota;
+		this.minScore=minScore;
+		this.confidence=confidence;
+		this.libe=libe;
+		this.scale=((Continuous) confidence.max()).getValue() > 1;
+	}
+
+	/**
+	 * Finds paths in order of score, until we reach the quota or the
+	 * minimum score.
+	 */
+	@Override
+	public void findPaths(Graph g, PathSink sink) {
+		if (this.depth==0 || this.quota==0) return;
+
+		// best edge confidence, for the bound
+		double maxConf = this.maxConfidence(g);
+
+		PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+		long queued = 0;
+		for (String source : new TreeSet<String>(stPairs.getFirsts())) {
+			if (!g.contains(source)) continue;
+			Source src = new Source(g, source, maxConf);
+			if (src.targets.isEmpty() || !src.dist.reachable(source, this.depth)) continue;
+			queue.add(new Entry(src, new Path(source), 1.0, this.depth, false, src.bound(source, 1.0), queued++));
+		}
+
+		PathCounter kept = new PathCounter(sink);
+		PathSink found = this.filtered(kept);
+		while (!queue.isEmpty() && kept.count() < this.quota) {
+			Entry top = queue.poll();
+			// nothing left can reach the minimum
+			if (top.bound < this.minScore) break;
+
+			if (top.complete) {
+				found.accept(top.path, this.name());
+				continue;
+			}
+
+			// extend by one edge
+			for (int type = 0; type < FORWARD.length; type++) {
+				for (Edge e : g.incidentView(top.path.getNode(-1), FORWARD[type])) {
+					Path next = top.path.copyAdd(e);
+					if (next == null) continue;
+
+					double score = top.score * this.confidence(e);
+					PathStatus verify = this.verify(next, top.left);
+					if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
+						double total = score * top.source.pairScore(next.getNode(-1));
+						queue.add(new Entry(top.source, next, total, 0, true, total, queued++));
+					}
+					if ((verify==PathStatus.CONTINUE || verify==PathStatus.SAVE_AND_CONTINUE)
+							&& top.left > 1 && top.source.dist.reachable(next.getNode(-1), top.left-1)) {
+						queue.add(new Entry(top.source, next, score, top.left-1, false,
+								top.source.bound(next.getNode(-1), score), queued++));
+					}
+				}
+			}
+		}
+		System.out.format("%s: best-first search found %d paths (queued %d)\n",
+				this.name(), kept.count(), queued);
+	}
+
+	/**
+	 * Confidence in an edge, between 0 and 1.
+	 * @param e
+	 * @return
+	 */
+	protected double confidence(Edge e) {
+		Value v = this.libe.getValue(e, this.confidence);
+		double val = v == null ? 0 : Math.max(((Continuous) v).getValue(), 0);
+		return this.scale ? val / (1.0 + val) : val;
+	}
+
+	/**
+	 * Best confidence of any edge in the graph. Goes through each node's
+	 * outgoing and undirected rows; every edge is in one of them.
+	 * @param g
+	 * @return
+	 */
+	protected double maxConfidence(Graph g) {
+		double maxConf = 0;
+		for (String n : g.nodes()) {
+			for (int type = 0; type < FORWARD.length; type++) {
+				for (Edge e : g.incidentView(n, FORWARD[type])) {
+					maxConf = Math.max(maxConf, this.confidence(e));
+				}
+			}
+		}
+		return maxConf;
+	}
+
+	/**
+	 * A source, its targets, and what we need to bound its paths' scores.
+	 */
+	protected class Source {
+		protected final String node;
+		protected final Set<String> targets = new HashSet<String>();
+		protected final TargetDistances dist;
+		protected final double maxConf;
+		// best pair score over the targets
+		protected double maxPair=0;
+
+		protected Source(Graph g, String node, double maxConf) {
+			this.node=node;
+			this.maxConf=maxConf;
+			for (String t : stPairs.getSeconds(node)) {
+				if (stPairs.getOrder(node, t)==PartialOrder.ABOVE && g.contains(t)) {
+					this.targets.add(t);
+					this.maxPair = Math.max(this.maxPair, this.pairScore(t));
+				}
+			}
+			this.dist = new TargetDistances(g, this.targets, depth);
+		}
+
+		/**
+		 * Score of the pair (1 if the pairs aren't scored).
+		 */
+		protected double pairScore(String target) {
+			if (!(stPairs instanceof ScoredPairDirectory)) return 1.0;
+			return Math.max(((ScoredPairDirectory) stPairs).getScore(this.node, target), 0);
+		}
+
+		/**
+		 * Best score a path with this score so far could reach,
+		 * continuing from the node.
+		 */
+		protected double bound(String last, double score) {
+			return score * Math.pow(this.maxConf, this.dist.distance(last)) * this.maxPair;
+		}
+	}
+
+	/**
+	 * A path waiting in the queue: complete (ending at a target) or not.
+	 * Ordered by best reachable score, then length, then the order queued.
+	 */
+	protected static class Entry implements Comparable<Entry> {
+		protected final Source source;
+		protected final Path path;
+		protected final double score;
+		protected final int left;
+		protected final boolean complete;
+		protected final double bound;
+		protected final long order;
+
+		protected Entry(Source source, Path path, double score, int left, boolean complete,
+				double bound, long order) {
+			this.source=source;
+			this.path=path;
+			this.score=score;
+			this.left=left;
+			this.complete=complete;
+			this.bound=bound;
+			this.order=order;
+		}
+
+		public int compareTo(Entry other) {
+			int c = Double.compare(other.bound, this.bound);
+			if (c != 0) return c;
+			c = this.path.edgeLength() - other.path.edgeLength();
+			if (c != 0) return c;
+			return Long.compare(this.order, other.order);
+		}
+	}
+
+	/**
+	 * Can't count paths: the sampling estimate is for all of a pair
+	 * pathfinder's paths, not the best ones.
+	 */
+	@Override
+	protected Collection<String> countStartNodes(Graph g) {
+		return null;
+	}
+
+	/**
+	 * Not a depth-first search.
+	 */
+	@Override
+	protected boolean batchable() {
+		return false;
+	}
+
+	/**
+	 * Reads a best-first pathfinder given a line and config.
+	 * Same columns as the PairPathFinder (pairIndex can be a SCORED_PAIRS
+	 * directory), then the maximum number of paths. Optionally, the minimum
+	 * path score (default 0) and the edge feature for confidences (default count).
+	 *
+	 * PATHFINDER	name	BestFirstPathFinder	pairIndex	5	1000	[0.1]	[count]
+	 *
+	 * @param line
+	 * @param config
+	 * @return
+	 */
+	public static PairPathFinder readPathFinder(String[] line, Configuration config)
+	throws InvalidValueException {
+		String err = "";
+
+		if (line.length < 6 || !line[2].equals("BestFirstPathFinder")) {
+			throw new InvalidValueException("Does not declare a BestFirstPathFinder: " + Arrays.toString(line));
+		}
+
+		String name = line[1];
+
+		PairDirectory pairs;
+		int depth=0, quota=0;
+		double minScore=0;
+
+		pairs = config.getPairDirectory(line[3]);
+		if (pairs==null) {
+			err="Invalid PairDirectory: " + line[3];
+		}
+
+		try {
+			depth = Integer.parseInt(line[4]);
+		} catch (NumberFormatException nfe) {
+			err="Invalid depth:" + line[4];
+		}
+
+		try {
+			quota = Integer.parseInt(line[5]);
+		} catch (NumberFormatException nfe) {
+			err="Invalid number of paths:" + line[5];
+		}
+		if (quota < 0) err="Invalid number of paths:" + line[5];
+
+		if (line.length > 6) {
+			try {
+				minScore = Double.parseDouble(line[6]);
+			} catch (NumberFormatException nfe) {
+				err="Invalid minimum score:" + line[6];
+			}
+		}
+
+		Feature conf = EdgeLibrary.COUNT_FEATURE;
+		if (line.length > 7) {
+			conf = config.edgeLibrary().getFeature(line[7]);
+			if (conf == null || conf.type() != Value.Type.CONTINUOUS) {
+				err="Invalid continuous edge feature for edge confidence: " + line[7];
+			}
+		}
+
+		if (err.length() > 0 ) {
+			throw new InvalidValueException(err);
+		}
+
+		return new BestFirstPathFinder(name, pairs, depth, quota, minScore, conf, config.edgeLibrary());
+	}
+
+	public String toString() {
+		return String.format("BestFirstPathFinder %s pairs=%s, depth=%d, quota=%d, min score=%f, confidence=%s%s%s",
+				this.name, this.stPairs.filename(), this.depth, this.quota, this.minScore, this.confidence.name(),
+				this.prune ? ", prune" : "", this.signed ? ", signed" : "");
+	}
+
+}
@@ -0,0 +1,305 @@
+package pathfinders;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import structures.Configuration;
+import structures.Edge;
+import structures.Graph;
+import structures.PairDirectory;
+import structures.PairDirectory.PartialOrder;
+import structures.Path;
+import structures.PathSink;
+import exceptions.InvalidValueException;
+
+/**
+ * Finds the same paths as the PairPathFinder, but meets in the middle
+ * instead of searching all the way out from the source.
+ *
+ * For each source, we find the half-paths of up to half the depth that
+ * lead backward from its targets, and index them by the node they reach.
+ * Then we search forward from the source for up to half the depth (rounded up)
+ * and join each forward half to the backward halves that start where it ends.
+ * A path of length k is split into a forward half of ceil(k/2) edges and
+ * a backward half of floor(k/2), so each one is built exactly once.
+ *
+ * As in the PairPathFinder, a path ends at the first target it reaches
+ * and never visits a node twice.
+ *
+ * This pays off for deeper searches (4-6) through high-degree nodes, where
+ * searching out from the source alone explores many paths that never reach a target.
+ */
+public class BidirectionalPairPathFinder extends PairPathFinder {
+
+	public BidirectionalPairPathFinder(String name, PairDirectory index, int depth) {
+		super(name, index, depth);
+	}
+
+	/**
+	 * Finds the paths from one source to its targets.
+	 * (Doesn't need the target distances - the backward halves already
+	 * tell us where the targets are.)
+	 * Returns false if the requested node isn't in the graph.
+	 */
+	@Override
+	protected boolean findPaths(Graph g, String start, int depth, TargetDistances bound, PathSink sink) {
+		// stop immediately and return if start not in graph
+		if (!g.contains(start)) return false;
+		if (depth==0 || !stPairs.getFirsts().contains(start)) return true;
+
+		Set<String> targets = this.targets(start);
+		HashMap<String, ArrayList<Half>> halves = this.backwardHalves(g, start, targets, depth/2);
+
+		// joined paths. equal paths (same nodes, directions and signs, but
+		// parallel edges) are kept once, as in a PathManager.
+		LinkedHashMap<Path, Path> joined = new LinkedHashMap<Path, Path>();
+
+		// forward halves: depth-first search from the source
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(g, new Path(start), (depth+1)/2));
+		while (!stack.isEmpty()) {
+			Frame top = stack.peek();
+			Edge e = top.next();
+			if (e == null) {
+				stack.pop();
+				continue;
+			}
+
+			Path next = top.path.copyAdd(e);
+			if (next==null) continue;
+
+			String middle = next.getNode(-1);
+			ArrayList<Half> meet = halves.get(middle);
+			if (meet != null) this.join(g, next, meet, depth, joined);
+
+			// paths stop at the first target
+			if (!targets.contains(middle) && top.depth > 1) {
+				stack.push(new Frame(g, next, top.depth-1));
+			}
+		}
+
+		PathSink found = this.filtered(sink);
+		for (Path p : joined.values()) {
+			found.accept(p, this.name());
+		}
+		return true;
+	}
+
+	/**
+	 * Doesn't use them, so doesn't build them.
+	 */
+	@Override
+	protected TargetDistances targetDistances(Graph g, String source, int depth) {
+		return null;
+	}
+	
+	/**
+	 * Doesn't search out from the source alone.
+	 */
+	@Override
+	protected boolean batchable() {
+		return false;
+	}
+	
+	/**
+	 * The source's targets: nodes that the pair directory puts above it.
+	 * (The same test the PairPathFinder uses to end a path.)
+	 * @param source
+	 * @return
+	 */
+	protected Set<String> targets(String source) {
+		HashSet<String> targets = new HashSet<String>();
+		for (String t : stPairs.getSeconds(source)) {
+			if (stPairs.getOrder(source, t)==PartialOrder.ABOVE) targets.add(t);
+		}
+		return targets;
+	}
+
+	/**
+	 * Finds the half-paths that lead backward from each target, up to the
+	 * given length, without passing through the source or another target.
+	 *
+	 * @param g
+	 * @param source
+	 * @param targets
+	 * @param maxLength	maximum length of a half-path, in edges
+	 * @return	node -> the half-paths that reach it, including the
+	 * 			zero-length ones at the targets themselves
+	 */
+	protected HashMap<String, ArrayList<Half>> backwardHalves(Graph g, String source,
+			Set<String> targets, int maxLength) {
+		HashMap<String, ArrayList<Half>> halves = new HashMap<String, ArrayList<Half>>();
+
+		ArrayList<Half> level = new ArrayList<Half>();
+		for (String t : targets) {
+			if (!g.contains(t)) continue;
+			Half root = new Half(null, null, t);
+			index(halves, root);
+			level.add(root);
+		}
+
+		for (int len = 1; len <= maxLength && !level.isEmpty(); len++) {
+			ArrayList<Half> nextLevel = new ArrayList<Half>();
+			for (Half h : level) {
+				for (int type = 0; type < BACKWARD.length; type++) {
+					for (Edge e : g.incidentView(h.node, BACKWARD[type])) {
+						String prev = e.other(h.node);
+						if (prev.equals(source) || targets.contains(prev) || h.contains(prev)) continue;
+						Half longer = new Half(h, e, prev);
+						index(halves, longer);
+						nextLevel.add(longer);
+					}
+				}
+			}
+			level = nextLevel;
+		}
+		return halves;
+	}
+
+	private static void index(HashMap<String, ArrayList<Half>> halves, Half h) {
+		ArrayList<Half> list = halves.get(h.node);
+		if (list == null) {
+			list = new ArrayList<Half>();
+			halves.put(h.node, list);
+		}
+		list.add(h);
+	}
+
+	/**
+	 * Joins a forward half to each backward half of the right length that
+	 * starts at its last node. Skips joins that would visit a node twice.
+	 *
+	 * @param g
+	 * @param forward	forward half, from the source
+	 * @param meet	backward halves from its last node
+	 * @param depth	maximum path length
+	 * @param joined	collects the joined paths
+	 */
+	protected void join(Graph g, Path forward, ArrayList<Half> meet, int depth,
+			LinkedHashMap<Path, Path> joined) {
+		int a = forward.edgeLength();
+		for (Half h : meet) {
+			// forward half is ceil(k/2), backward is floor(k/2)
+			if ((h.length != a && h.length != a-1) || a + h.length > depth) continue;
+
+			// walk the backward half toward the target.
+			// copyAdd fails if we'd revisit a node.
+			Path p = forward;
+			for (Half x = h; x.next != null && p != null; x = x.next) {
+				p = p.copyAdd(x.edge);
+			}
+			if (p == null) continue;
+
+			Path prev = joined.get(p);
+			if (prev == null || firstInSearch(g, p, prev)) {
+				joined.put(p, p);
+			}
+		}
+	}
+
+	/**
+	 * Of two equal paths (which only differ in parallel edges), does p
+	 * come first in the order the depth-first search finds them?
+	 * That's the one a PairPathFinder keeps, so we keep it too.
+	 * @param g
+	 * @param p
+	 * @param q
+	 * @return
+	 */
+	protected static boolean firstInSearch(Graph g, Path p, Path q) {
+		for (int i = 0; i < p.edgeLength(); i++) {
+			Edge ep = p.getEdge(i), eq = q.getEdge(i);
+			if (ep.equals(eq)) continue;
+
+			String node = p.getNode(i);
+			for (int type = 0; type < FORWARD.length; type++) {
+				for (Edge e : g.incidentView(node, FORWARD[type])) {
+					if (e.equals(ep)) return true;
+					if (e.equals(eq)) return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A half-path leading backward from a target: its first node,
+	 * the edge out of it, and the rest of the half-path.
+	 */
+	protected static class Half {
+		// one step closer to the target; null at the target itself
+		protected final Half next;
+		// edge from node to next.node
+		protected final Edge edge;
+		protected final String node;
+		protected final int length;
+
+		protected Half(Half next, Edge edge, String node) {
+			this.next=next;
+			this.edge=edge;
+			this.node=node;
+			this.length = next==null ? 0 : next.length+1;
+		}
+
+		protected boolean contains(String n) {
+			for (Half x = this; x != null; x = x.next) {
+				if (x.node.equals(n)) return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Reads a bidirectional pairpathfinder given a line and config.
+	 * Same columns as the PairPathFinder.
+	 * 5 is the depth.
+	 *
+	 * PATHFINDER	name	BidirectionalPairPathFinder	pairIndex	5
+	 *
+	 * @param line
+	 * @param config
+	 * @return
+	 */
+	public static PairPathFinder readPathFinder(String[] line, Configuration config)
+	throws InvalidValueException {
+		String err = "";
+
+		if (line.length < 5 || !line[2].equals("BidirectionalPairPathFinder")) {
+			throw new InvalidValueException("Does not declare a BidirectionalPairPathFinder: " + Arrays.toString(line));
+		}
+
+		String name = line[1];
+
+		PairDirectory pairs;
+		int depth=0;
+
+		pairs = config.getPairDirectory(line[3]);
+		if (pairs==null) {
+			err="Invalid PairDirectory: " + line[3];
+		}
+
+		try {
+			depth = Integer.parseInt(line[4]);
+		} catch (NumberFormatException nfe) {
+			err="Invalid depth:" + line[4];
+		}
+
+		if (err.length() > 0 ) {
+			throw new InvalidValueException(err);
+		}
+
+		return new BidirectionalPairPathFinder(name, pairs, depth);
+	}
+
+	public String toString() {
+		return String.format("BidirectionalPairPathFinder %s pairs=%s, depth=%d%s%s",
+				this.name, this.stPairs.filename(), this.depth, this.prune ? ", prune" : "",
+				this.signed ? ", signed" : "");
+	}
+
+}
@@ -1,19 +1,19 @@
 package pathfinders;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import structures.Configuration;
 import structures.Edge;
 import structures.Graph;
-import structures.Graph.RType;
 import structures.PairDirectory;
 import structures.Path;
 import structures.PathManager;
-import utilities.DebugTools;
+import structures.PathSink;
 import exceptions.InvalidValueException;
 import filters.EdgeFilterManager;
 import filters.NodeFilterManager;
@@ -58,64 +58,61 @@ public class EndlessPathFinder extends PathFinder {
 	 * The Endless PathFinder paths start with items in the "start" set
 	 * and stops searching only when depth runs out.
 	 * @param g
-	 * @param depth
-	 * @return
+	 * @param sink
 	 */
-	public PathManager findPaths(Graph g) {
-		PathManager found = new PathManager();		
-
+	public void findPaths(Graph g, PathSink sink) {
 		// stop if depth==0
-		if (depth==0) return found;
+		if (depth==0) return;
 
 		// get the start nodes
 		List<String> startNodes = start.apply(g.nodes());
 
-		// search for each start node
-		for (String node : startNodes) {	
-			if (!g.contains(node)) {
-				if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
-				continue;		
-			}
-
-			PathManager npaths = this.findPaths(g, node, this.depth);
-
-			if (DebugTools.DEBUG && npaths.size() > 0) {
-				System.out.println(String.format("Found %d paths for starting node %s.", 
-						npaths.size(), node));
-			}
-
-			// npaths is null if node not in graph
-			if (npaths != null) found.addAll(npaths);			
-		}
-
-		return found;
+		// search from each start node
+		this.searchAll(g, startNodes, this.depth, sink);
 	}
 
 	/**
 	 * Finds paths starting at a given node.
-	 * Returns null if the requested node isn't in the graph.
-	 * @param start
-	 * @param depth
-	 * @return
+	 * Returns false if the requested node isn't in the graph.
+	 * (Nothing to prune by - endless paths have no targets.)
 	 */
-	public PathManager findPaths(Graph g, String start, int depth) {
+	@Override
+	protected boolean findPaths(Graph g, String start, int depth, TargetDistances bound, PathSink sink) {
 		// stop immediately and return if start not in graph
-		if (!g.contains(start)) return null;
+		if (!g.contains(start)) return false;
 
-		PathManager pm = new PathManager();
+		PathSink found = this.filtered(sink);
 
 		Path init = new Path(start);
 		PathStatus verify = this.verify(init, depth);
 		if (verify==PathStatus.SAVE_AND_STOP) {
-			pm.add(init, this.name());
+			found.accept(init, this.name());
 		} else if (verify==PathStatus.CONTINUE ){
-			pm = this.search(g, new Path(start), depth);
+			this.searchFrom(g, init, depth, null, found);
 		} else {
 			assert(false):
 				"Shouldn't receive any other path status.";
 		}
 
-		return pm;		
+		return true;		
+	}
+	
+	/**
+	 * The EndlessPathFinder doesn't post-process or filter its paths;
+	 * it only drops repeats.
+	 */
+	@Override
+	protected PathSink filtered(final PathSink sink) {
+		return this.withoutRepeats(sink);
+	}
+	
+	/**
+	 * Paths can end anywhere, so any node within the depth of a start node.
+	 * (A node that can be extended keeps all its neighbors, so dead ends stay dead ends.)
+	 */
+	@Override
+	public Set<String> relevantNodes(Graph g) {
+		return relevantNodes(g, start.apply(g.nodes()), null, this.depth);
 	}
 	
 	/**
@@ -146,57 +143,58 @@ public class EndlessPathFinder extends PathFinder {
 
 	/**
 	 * Searches out from the last node in the given path.
+	 * Paths are saved when they run out of depth or reach a dead end.
 	 * @param g
-	 * @param curNode
 	 * @param currPath
 	 * @param depth
-	 * @return
+	 * @param bound	ignored
+	 * @param found	receives saved paths
 	 */
-	public PathManager search(Graph g, Path currPath, int depth) {
-		PathManager found = new PathManager();
-
+	@Override
+	protected void searchFrom(Graph g, Path currPath, int depth, TargetDistances bound, PathSink found) {
 		// if depth == 0, can return current path.
 		if (depth==0) {
-			found.add(currPath, this.name());
-			return found;
+			found.accept(currPath, this.name());
+			return;
 		}
 
-		String last = currPath.getNode(-1);
-
-		// check outgoing and undirected edges
-		HashSet<Edge> further = new HashSet<Edge>(g.incident(last, RType.OUTGOING));
-		further.addAll(g.incident(last, RType.UNDIRECTED));
-		
-		// if no outgoing edges, then save and stop here.
-		if (further.size()==0) {
-			found.add(currPath, this.name());
-		}
-
-		for (Edge e : further) {
-			Path next = currPath.copyAdd(e);
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(g, currPath, depth));
+		while (!stack.isEmpty()) {
+			Frame top = stack.peek();
+			Edge e = top.next();
+			if (e == null) {
+				stack.pop();
+				// if no outgoing edges, then save and stop here.
+				if (top.deadEnd()) {
+					found.accept(top.path, this.name());
+				}
+				continue;
+			}
+			
+			Path next = top.path.copyAdd(e);
 
 			// if addition fails, the edge must have introduced a cycle.
 			// keep going.
 			if (next==null) continue;
 
 			// otherwise, check the path against the PathFinder!
-			PathStatus verify = this.verify(next, depth);
+			PathStatus verify = this.verify(next, top.depth);
 			assert(verify != PathStatus.SAVE_AND_CONTINUE):
 				"Not implemented.";
 
 			if (verify==PathStatus.SAVE_AND_STOP) {
 				// save the path and stop! woo
-				found.add(next, this.name()); 
+				found.accept(next, this.name()); 
 			} else if (verify==PathStatus.CONTINUE) {
-				// keep looking
-				PathManager deeper = search(g, next, depth-1);
-				found.addAll(deeper);
-			} else if (verify==PathStatus.STOP) {
-				continue;
-			}			
+				// keep looking; a path that's used up its depth is saved
+				if (top.depth > 1) {
+					stack.push(new Frame(g, next, top.depth-1));
+				} else {
+					found.accept(next, this.name());
+				}
+			}
 		}
-		
-		return found;
 	}
 
 	/**
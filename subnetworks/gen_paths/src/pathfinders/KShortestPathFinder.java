@@ -0,0 +1,419 @@
+package pathfinders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import structures.Configuration;
+import structures.Continuous;
+import structures.Edge;
+import structures.EdgeLibrary;
+import structures.Feature;
+import structures.Graph;
+import structures.PairDirectory;
+import structures.PairDirectory.PartialOrder;
+import structures.Path;
+import structures.PathSink;
+import structures.Value;
+import utilities.GraphUtils;
+import exceptions.InvalidValueException;
+
+/**
+ * Finds at most k shortest paths for each source-target pair, instead of
+ * all of them, so a hub between a source and its targets can't blow up
+ * the number of paths. (Yen's algorithm, limited to paths of at most
+ * "depth" edges.)
+ *
+ * Paths follow the same rules as in the PairPathFinder: they never visit
+ * a node twice, and they end at the first of the source's targets they reach.
+ * So each path found here is also found by a PairPathFinder with the same depth.
+ *
+ * By default, every edge costs 1, so the shortest paths have the fewest edges.
+ * If a continuous edge feature is given, an edge with value v costs 1/(1+v),
+ * so paths through well-supported edges (e.g. with a high "count") come first.
+ * Values below 0, or missing, count as 0.
+ * Ties are broken by number of edges, then by the order we find the paths.
+ *
+ * Post-processing and edge filters are applied to the k paths, so a pair
+ * can end up with fewer.
+ */
+public class KShortestPathFinder extends PairPathFinder {
+
+	/*
+	 * Maximum number of paths per source-target pair
+	 */
+	protected final int k;
+
+	/*
+	 * Optional continuous edge feature for weighting edges, and the
+	 * library that holds its values. Null if every edge costs 1.
+	 */
+	protected final Feature weight;
+	protected final EdgeLibrary libe;
+
+	/**
+	 * Unweighted: finds the k paths with the fewest edges for each pair.
+	 * @param name
+	 * @param index	source-target pairs
+	 * @param depth	maximum path length, in edges
+	 * @param k	maximum number of paths per pair
+	 */
+	public KShortestPathFinder(String name, PairDirectory index, int depth, int k) {
+		this(name, index, depth, k, null, null);
+	}
+
+	/**
+	 * Weighted by a continuous edge feature.
+	 * @param name
+	 * @param index	source-target pairs
+	 * @param depth	maximum path length, in edges
+	 * @param k	maximum number of paths per pair
+	 * @param weight	continuous edge feature, or null for unweighted
+	 * @param libe	edge library with the feature's values
+	 */
+	public KShortestPathFinder(String name, PairDirectory index, int depth, int k,
+			Feature weight, EdgeLibrary libe) {
+		super(name, index, depth);
+		this.k=k;
+		this.weight=weight;
+		this.libe=libe;
+	}
+
+	/**
+	 * Finds the k shortest paths from the source to each of its targets.
+	 * (Doesn't use the target distances.)
+	 * Returns false if the requested node isn't in the graph.
+	 */
+	@Override
+	protected boolean findPaths(Graph g, String start, int depth, TargetDistances bound, PathSink sink) {
+		// stop immediately and return if start not in graph
+		if (!g.contains(start)) return false;
+		if (depth==0 || this.k==0 || !stPairs.getFirsts().contains(start)) return true;
+
+		// paths can't pass through any of the source's targets
+		TreeSet<String> targets = new TreeSet<String>();
+		for (String t : stPairs.getSeconds(start)) {
+			if (stPairs.getOrder(start, t)==PartialOrder.ABOVE && g.contains(t)) targets.add(t);
+		}
+
+		PathSink found = this.filtered(sink);
+		for (String t : targets) {
+			for (Path p : this.shortestPaths(g, start, t, targets, depth)) {
+				found.accept(p, this.name());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doesn't use them, so doesn't build them.
+	 */
+	@Override
+	protected TargetDistances targetDistances(Graph g, String source, int depth) {
+		return null;
+	}
+
+	/**
+	 * Yen's algorithm: finds up to k shortest paths from the source to the
+	 * target, in order. Each new path is the best one that leaves some
+	 * earlier path at some node (the "spur") and doesn't follow any
+	 * earlier path that shares its start out of the spur.
+	 *
+	 * @param g
+	 * @param source
+	 * @param target
+	 * @param targets	all of the source's targets, which can't be inside a path
+	 * @param depth	maximum length in edges
+	 * @return
+	 */
+	protected ArrayList<Path> shortestPaths(Graph g, String source, String target,
+			Set<String> targets, int depth) {
+		ArrayList<Path> paths = new ArrayList<Path>();
+		
+		// only look at nodes that can still reach the target in time
+		Map<String, Integer> toTarget = GraphUtils.distances(g, Collections.singleton(target), BACKWARD, depth);
+
+		Candidate first = this.shortestFrom(g, new Path(source), 0, target, targets, toTarget, depth, null);
+		if (first == null) return paths;
+
+		ArrayList<Candidate> found = new ArrayList<Candidate>();
+		// paths found or waiting
+		HashSet<Path> seen = new HashSet<Path>();
+		TreeSet<Candidate> waiting = new TreeSet<Candidate>();
+		found.add(first);
+		seen.add(first.path);
+
+		while (found.size() < this.k) {
+			Candidate last = found.get(found.size()-1);
+			for (int i = 0; i < last.path.edgeLength(); i++) {
+				Path root = last.prefixes[i];
+
+				// don't leave the spur the way an earlier path with this root did
+				HashSet<Path> taken = new HashSet<Path>();
+				for (Candidate c : found) {
+					if (c.path.edgeLength() > i && c.prefixes[i].equals(root)) {
+						taken.add(c.prefixes[i+1]);
+					}
+				}
+
+				Candidate spur = this.shortestFrom(g, root, last.costs[i],
+						target, targets, toTarget, depth - i, taken);
+				if (spur != null && seen.add(spur.path)) {
+					spur.order = seen.size();
+					waiting.add(spur);
+				}
+			}
+
+			if (waiting.isEmpty()) break;
+			found.add(waiting.pollFirst());
+		}
+
+		for (Candidate c : found) {
+			paths.add(c.path);
+		}
+		return paths;
+	}
+
+	/**
+	 * Finds the cheapest way to extend the root path to the target
+	 * with at most maxEdges more edges, without revisiting the root's nodes
+	 * or passing through another target. (Bellman-Ford, one layer per edge.)
+	 *
+	 * @param g
+	 * @param root	path from the source to the spur node
+	 * @param rootCost	cost of the root
+	 * @param target
+	 * @param targets	the source's targets
+	 * @param toTarget	distance from each node to the target, ignoring the rules above
+	 * @param maxEdges
+	 * @param taken	extensions of the root by one edge that we can't use; null for none
+	 * @return	the full path, or null if there isn't one within the rules above
+	 * 			(or the cheapest walk to the target isn't a simple path; see below)
+	 */
+	protected Candidate shortestFrom(Graph g, Path root, double rootCost, String target,
+			Set<String> targets, Map<String, Integer> toTarget, int maxEdges, Set<Path> taken) {
+		HashSet<String> blocked = new HashSet<String>(root.nodes());
+		String spur = root.getNode(-1);
+
+		// best step into each node, using exactly h edges.
+		// (kept in the order we reach them, so ties always go the same way)
+		LinkedHashMap<String, Step> layer = new LinkedHashMap<String, Step>();
+		layer.put(spur, new Step(null, null, spur, rootCost));
+		Step best = null;
+		for (int h = 1; h <= maxEdges && !layer.isEmpty(); h++) {
+			LinkedHashMap<String, Step> next = new LinkedHashMap<String, Step>();
+			for (Step s : layer.values()) {
+				// paths end at the target
+				if (s.node.equals(target)) continue;
+
+				for (int type = 0; type < FORWARD.length; type++) {
+					for (Edge e : g.incidentView(s.node, FORWARD[type])) {
+						String v = e.other(s.node);
+						if (blocked.contains(v) || (targets.contains(v) && !v.equals(target))) continue;
+						Integer d = toTarget.get(v);
+						if (d == null || d > maxEdges - h) continue;
+						if (h==1 && taken != null && taken.contains(root.copyAdd(e))) continue;
+
+						double cost = s.cost + this.cost(e);
+						Step old = next.get(v);
+						if (old == null || cost < old.cost) {
+							next.put(v, new Step(s, e, v, cost));
+						}
+					}
+				}
+			}
+
+			// cheapest so far? ties go to the one with fewer edges
+			Step atTarget = next.get(target);
+			if (atTarget != null && (best == null || atTarget.cost < best.cost)) {
+				best = atTarget;
+			}
+			layer = next;
+		}
+		if (best == null) return null;
+
+		// walk back to the spur, then build the path forward from the root
+		ArrayList<Step> steps = new ArrayList<Step>();
+		for (Step s = best; s.edge != null; s = s.prev) {
+			steps.add(s);
+		}
+		Path[] prefixes = new Path[root.edgeLength() + steps.size() + 1];
+		double[] costs = new double[prefixes.length];
+		this.prefixes(root, prefixes, costs);
+
+		Path p = root;
+		for (int i = steps.size()-1; i >= 0; i--) {
+			p = p.copyAdd(steps.get(i).edge);
+			// the layers only keep the root's nodes out, not the walk's own,
+			// so the cheapest walk can come back to a node it already passed.
+			// copyAdd won't make that a path; we give up on this spur then.
+			if (p == null) return null;
+			prefixes[p.edgeLength()] = p;
+			costs[p.edgeLength()] = steps.get(i).cost;
+		}
+		return new Candidate(p, prefixes, costs);
+	}
+
+	/**
+	 * Fills in the root's prefixes and the cost of each.
+	 */
+	private void prefixes(Path root, Path[] prefixes, double[] costs) {
+		Path p = new Path(root.getNode(0));
+		prefixes[0] = p;
+		costs[0] = 0;
+		for (int i = 0; i < root.edgeLength(); i++) {
+			Edge e = root.getEdge(i);
+			p = p.copyAdd(e);
+			prefixes[i+1] = p;
+			costs[i+1] = costs[i] + this.cost(e);
+		}
+	}
+
+	/**
+	 * Cost of an edge: 1, or 1/(1+v) if weighted by a feature.
+	 * @param e
+	 * @return
+	 */
+	protected double cost(Edge e) {
+		if (this.weight == null) return 1.0;
+		Value v = this.libe.getValue(e, this.weight);
+		double val = v == null ? 0 : ((Continuous) v).getValue();
+		return 1.0 / (1.0 + Math.max(val, 0));
+	}
+
+	/**
+	 * One step of a shortest-path search: the node reached,
+	 * the edge we took, and the step before.
+	 */
+	protected static class Step {
+		protected final Step prev;
+		protected final Edge edge;
+		protected final String node;
+		protected final double cost;
+
+		protected Step(Step prev, Edge edge, String node, double cost) {
+			this.prev=prev;
+			this.edge=edge;
+			this.node=node;
+			this.cost=cost;
+		}
+	}
+
+	/**
+	 * A path with its prefixes and their costs, so we can branch off
+	 * it at any node. Ordered by cost, then length, then the order found.
+	 */
+	protected static class Candidate implements Comparable<Candidate> {
+		protected final Path path;
+		// prefixes[i] has the first i edges; costs[i] is its cost
+		protected final Path[] prefixes;
+		protected final double[] costs;
+		protected int order=0;
+
+		protected Candidate(Path path, Path[] prefixes, double[] costs) {
+			this.path=path;
+			this.prefixes=prefixes;
+			this.costs=costs;
+		}
+
+		protected double cost() {
+			return this.costs[this.costs.length-1];
+		}
+
+		public int compareTo(Candidate other) {
+			int c = Double.compare(this.cost(), other.cost());
+			if (c != 0) return c;
+			c = this.path.edgeLength() - other.path.edgeLength();
+			if (c != 0) return c;
+			return this.order - other.order;
+		}
+	}
+
+	/**
+	 * Can't count paths: the sampling estimate is for all of a pair
+	 * pathfinder's paths, not the k shortest. (There are at most k per pair anyway.)
+	 */
+	@Override
+	protected Collection<String> countStartNodes(Graph g) {
+		return null;
+	}
+
+	/**
+	 * Not a depth-first search.
+	 */
+	@Override
+	protected boolean batchable() {
+		return false;
+	}
+
+	/**
+	 * Reads a k-shortest pathfinder given a line and config.
+	 * Same columns as the PairPathFinder, then k, the maximum
+	 * number of paths per pair. Optionally, the name of a continuous
+	 * edge feature to weight the edges by (e.g. "count").
+	 *
+	 * PATHFINDER	name	KShortestPathFinder	pairIndex	5	10	[count]
+	 *
+	 * @param line
+	 * @param config
+	 * @return
+	 */
+	public static PairPathFinder readPathFinder(String[] line, Configuration config)
+	throws InvalidValueException {
+		String err = "";
+
+		if (line.length < 6 || !line[2].equals("KShortestPathFinder")) {
+			throw new InvalidValueException("Does not declare a KShortestPathFinder: " + Arrays.toString(line));
+		}
+
+		String name = line[1];
+
+		PairDirectory pairs;
+		int depth=0, k=0;
+
+		pairs = config.getPairDirectory(line[3]);
+		if (pairs==null) {
+			err="Invalid PairDirectory: " + line[3];
+		}
+
+		try {
+			depth = Integer.parseInt(line[4]);
+		} catch (NumberFormatException nfe) {
+			err="Invalid depth:" + line[4];
+		}
+
+		try {
+			k = Integer.parseInt(line[5]);
+		} catch (NumberFormatException nfe) {
+			err="Invalid number of paths per pair:" + line[5];
+		}
+		if (k < 0) err="Invalid number of paths per pair:" + line[5];
+
+		Feature weight = null;
+		if (line.length > 6) {
+			weight = config.edgeLibrary().getFeature(line[6]);
+			if (weight == null || weight.type() != Value.Type.CONTINUOUS) {
+				err="Invalid continuous edge feature for weighting paths: " + line[6];
+			}
+		}
+
+		if (err.length() > 0 ) {
+			throw new InvalidValueException(err);
+		}
+
+		return new KShortestPathFinder(name, pairs, depth, k, weight, config.edgeLibrary());
+	}
+
+	public String toString() {
+		String w = this.weight == null ? "" : ", weight=" + this.weight.name();
+		return String.format("KShortestPathFinder %s pairs=%s, depth=%d, k=%d%s",
+				this.name, this.stPairs.filename(), this.depth, this.k, w);
+	}
+
+}
@@ -3,16 +3,23 @@ package pathfinders;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
+import structures.BranchyPath;
 import structures.Configuration;
+import structures.Edge;
 import structures.Graph;
 import structures.PairDirectory;
 import structures.PairDirectory.PartialOrder;
 import structures.Path;
 import structures.PathManager;
+import structures.PathSink;
 import utilities.DebugTools;
+import utilities.Enums.Sign;
 import exceptions.InvalidValueException;
 import filters.EdgeFilterManager;
 
@@ -49,6 +56,18 @@ public class PairPathFinder extends PathFinder {
 	 */
 	protected double stop=1.0;
 	
+	/*
+	 * Prune the search by distance to each source's targets?
+	 * Off by default. Doesn't change the paths found.
+	 */
+	protected boolean prune=false;
+	
+	/*
+	 * Only keep paths whose sign (the product of their edges' signs)
+	 * matches the sign of their source-target pair? Off by default.
+	 */
+	protected boolean signed=false;
+	
 	
 	/*
 	 * Keep a set of edge filter managers to apply to paths.
@@ -91,45 +110,193 @@ public class PairPathFinder extends PathFinder {
 	 * 
 	 * Any further restrictions (e.g., requirements for candidate TFs/RBPs)
 	 * will be made in subclasses.
-	 * @param 
-	 * @param depth
-	 * @return
+	 * @param g
+	 * @param sink
 	 */
 	@Override
-	public PathManager findPaths(Graph g) {
+	public void findPaths(Graph g, PathSink sink) {
 		if (this.iterativeDeepening) {
-			return this.findPathsIterative(g);
+			this.findPathsIterative(g, sink);
+			return;
 		}
 		
-		PathManager found = new PathManager();
-				
 		// stop if depth==0
-		if (depth==0) return found;
+		if (depth==0) return;
 
 		// get the start nodes
 		Set<String> startNodes = stPairs.getFirsts();
-		// search for each start node
-		for (String node : startNodes) {	
-			if (!g.contains(node)) {
-				if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
-				continue;		
-			}
-			
-			PathManager npaths = this.findPaths(g, node, this.depth);
-			
-
-			if (DebugTools.DEBUG && npaths.size() > 0) {
-				System.out.println(String.format("Found %d paths for starting node %s.", 
-						npaths.size(), node));
-			}
+		// search from each start node
+		this.searchAll(g, startNodes, this.depth, sink);
+	}
 
-			// npaths is null if node not in graph
-			if (npaths != null) found.addAll(npaths);			
+	/**
+	 * Turns target-distance pruning on or off. If on, before searching
+	 * from a source we find how far each node is from the source's
+	 * targets, and stop extending paths that can't reach one in time.
+	 * @param prune
+	 */
+	public void setPruning(boolean prune) {
+		this.prune=prune;
+	}
+	
+	/**
+	 * Turns sign consistency on or off. If on, a path is only kept if
+	 * its sign matches the sign given for its source-target pair
+	 * (paths and pairs of unknown sign always match). On its own, this
+	 * only filters the paths the search finds; with pruning on too, 
+	 * the search also stops extending paths that can't reach a target 
+	 * with the right sign in time.
+	 * @param signed
+	 */
+	public void setSigned(boolean signed) {
+		this.signed=signed;
+	}
+	
+	/**
+	 * Are we only keeping paths whose sign matches their pair's?
+	 * @return
+	 */
+	public boolean signed() {
+		return this.signed;
+	}
+	
+	/**
+	 * Does the path's sign match the sign of the pair it connects?
+	 * True if either one is unknown.
+	 * @param p
+	 * @return
+	 */
+	protected boolean signMatches(Path p) {
+		Sign req = this.stPairs.getSign(p.getNode(0), p.getNode(-1));
+		if (req == Sign.UNKNOWN) return true;
+		Sign s = p.sign();
+		return s == Sign.UNKNOWN || s == req;
+	}
+	
+	/**
+	 * The parts of the path whose sign matches its pair's: the path itself,
+	 * or for a BranchyPath, just the branches (terminal edges) that end with
+	 * the right sign. Those are split up by their terminal edge's sign,
+	 * so that each part has a single sign (a mixed BranchyPath has none). 
+	 * A part with one branch is just a linear path, as in collapse.
+	 * @param p
+	 * @return	the parts, in sign order; empty if none match
+	 */
+	protected List<Path> signConsistent(Path p) {
+		ArrayList<Path> parts = new ArrayList<Path>(1);
+		if (!(p instanceof BranchyPath)) {
+			if (this.signMatches(p)) parts.add(p);
+			return parts;
 		}
 		
-		return found;
+		BranchyPath bp = (BranchyPath) p;
+		Path body = bp.bodyPath();
+		// matching branches, by sign of the terminal edge
+		Sign[] signs = Sign.values();
+		ArrayList<HashSet<Edge>> bySign = new ArrayList<HashSet<Edge>>(signs.length);
+		ArrayList<HashSet<String>> termini = new ArrayList<HashSet<String>>(signs.length);
+		ArrayList<Path> branches = new ArrayList<Path>(signs.length);
+		for (int s = 0; s < signs.length; s++) {
+			bySign.add(new HashSet<Edge>());
+			termini.add(new HashSet<String>());
+			branches.add(null);
+		}
+		int kept = 0, groups = 0;
+		for (Edge e : bp.terminalEdges()) {
+			Path q = body.copyAdd(e);
+			if (q != null && this.signMatches(q)) {
+				int s = e.sign().ordinal();
+				if (bySign.get(s).isEmpty()) groups++;
+				bySign.get(s).add(e);
+				termini.get(s).add(q.getNode(-1));
+				branches.set(s, q);
+				kept++;
+			}
+		}
+		if (kept == bp.terminalEdges().size() && groups == 1) {
+			parts.add(p);
+			return parts;
+		}
+		for (int s = 0; s < signs.length; s++) {
+			if (bySign.get(s).isEmpty()) continue;
+			if (bySign.get(s).size() == 1) parts.add(branches.get(s));
+			else parts.add(new BranchyPath(body, termini.get(s), bySign.get(s)));
+		}
+		return parts;
 	}
-
+	
+	/**
+	 * Drops paths (or branches) whose sign doesn't match their pair's,
+	 * if we're checking signs, before the usual post-processing and filters.
+	 */
+	@Override
+	protected PathSink filtered(final PathSink sink) {
+		final PathSink filtered = super.filtered(sink);
+		if (!this.signed) return filtered;
+		return new PathSink() {
+			public void accept(Path p, String label) {
+				for (Path q : signConsistent(p)) {
+					filtered.accept(q, label);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Nodes on some walk from a source to a target within the depth
+	 * (the max depth, if iterative deepening.)
+	 */
+	@Override
+	public Set<String> relevantNodes(Graph g) {
+		int bound = this.iterativeDeepening ? Math.max(this.depth, this.maxDepth) : this.depth;
+		return relevantNodes(g, stPairs.getFirsts(), stPairs.getSeconds(), bound);
+	}
+	
+	@Override
+	protected Collection<String> countStartNodes(Graph g) {
+		return stPairs.getFirsts();
+	}
+	
+	/**
+	 * The max depth, if iterative deepening.
+	 */
+	@Override
+	protected int countDepth() {
+		return this.iterativeDeepening ? Math.max(this.depth, this.maxDepth) : this.depth;
+	}
+	
+	/**
+	 * Unless it's deepening iteratively or collapses paths.
+	 */
+	@Override
+	protected boolean batchable() {
+		return !this.iterativeDeepening && this.collapseMode==CollapseMode.NO;
+	}
+	
+	/**
+	 * Distances to the source's targets, out to the given depth,
+	 * or null if we aren't pruning. If we're also checking signs, these
+	 * are distances to the targets the path could reach with the right sign.
+	 * @param g
+	 * @param source
+	 * @param depth
+	 * @return
+	 */
+	@Override
+	protected TargetDistances targetDistances(Graph g, String source, int depth) {
+		if (!this.prune || !g.contains(source)) return null;
+		if (this.signed) {
+			HashMap<String, Sign> targets = new HashMap<String, Sign>();
+			for (String t : stPairs.getSeconds(source)) {
+				if (stPairs.getOrder(source, t)==PartialOrder.ABOVE) {
+					targets.put(t, stPairs.getSign(source, t));
+				}
+			}
+			return new SignedTargetDistances(g, targets, depth);
+		}
+		return new TargetDistances(g, stPairs.getSeconds(source), depth);
+	}
+	
 	/**
 	* We can run iterative deepening using the class's values
 	*
@@ -147,66 +314,128 @@ public class PairPathFinder extends PathFinder {
 	 * @param stop	fraction of required targets
 	 * @return
 	 */
-	public PathManager findPathsIterative(Graph g, int maxDepth, double stop) {
-	PathManager found = new PathManager();
-		
+	public PathManager findPathsIterative(final Graph g, final int maxDepth, final double stop) {
+		PathManager found = new PathManager();
+		this.findPathsIterative(g, maxDepth, stop, found);
+		return found;
+	}
+	
+	/**
+	 * As findPathsIterative(g), but sends the paths to a sink.
+	 * @param g
+	 * @param sink
+	 */
+	protected void findPathsIterative(Graph g, PathSink sink) {
+		this.findPathsIterative(g, this.maxDepth, this.stop, sink);
+	}
+	
+	/**
+	 * As findPathsIterative(g, maxDepth, stop), but sends the paths to a sink,
+	 * in the order of the start nodes. As in searchAll, with one thread each
+	 * source's paths go to the sink as soon as its search is done; parallel
+	 * searches hold on to theirs until it's their turn.
+	 * @param g
+	 * @param maxDepth
+	 * @param stop	fraction of required targets
+	 * @param sink
+	 */
+	protected void findPathsIterative(final Graph g, final int maxDepth, final double stop, 
+			final PathSink sink) {
 		// stop if depth==0
-		if (depth==0) return found;
+		if (depth==0) return;
 
 		// get the start nodes
 		Set<String> startNodes = stPairs.getFirsts();
+		final boolean direct = this.threads <= 1;
 		// search for each start node
-		for (String node : startNodes) {
-			Set<String> targets = stPairs.getSeconds(node);
-			// targets in graph?
-			HashSet<String> tot = new HashSet<String>(g.nodes());
-			tot.retainAll(targets);
-			if (DebugTools.DEBUG) {
-				System.out.format("%s has %d targets in graph \n", node, tot.size());
-			}
-			
- 			
-			if (!g.contains(node)) {
-				if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
-				continue;		
+		ArrayList<Callable<PathManager>> tasks = new ArrayList<Callable<PathManager>>();
+		for (final String node : startNodes) {
+			tasks.add(new Callable<PathManager>() {
+				public PathManager call() {
+					PathManager npaths = deepen(g, node, maxDepth, stop);
+					if (!direct || npaths == null) return npaths;
+					npaths.copyTo(sink);
+					return null;
+				}
+			});
+		}
+		
+		for (PathManager npaths : this.runAll(tasks)) {
+			// npaths is null if node not in graph (or we sent them straight to the sink)
+			if (npaths != null) npaths.copyTo(sink);			
+		}
+	}
+	
+	/**
+	 * Iterative deepening from one source: searches deeper until 
+	 * "stop" fraction of its targets is covered or maxDepth is reached.
+	 * @param g
+	 * @param node	source
+	 * @param maxDepth
+	 * @param stop	fraction of required targets
+	 * @return	paths found at the final depth; null if node not in graph
+	 */
+	protected PathManager deepen(Graph g, String node, int maxDepth, double stop) {
+		Set<String> targets = stPairs.getSeconds(node);
+		// targets in graph?
+		if (DebugTools.DEBUG) {
+			int tot = 0;
+			for (String t : targets) {
+				if (g.contains(t)) tot++;
 			}
+			System.out.format("%s has %d targets in graph \n", node, tot);
+		}
+		
+		if (!g.contains(node)) {
+			if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
+			return null;		
+		}
+
+		// never searched?
+		if (this.depth > maxDepth) return null;
 
-			// iterative deepening loop
-			double cov=0.0;
-			int atDepth=this.depth;
+		// distances don't depend on the search depth, so find them once
+		TargetDistances bound = this.targetDistances(g, node, maxDepth);
+
+		// iterative deepening loop: each depth only extends 
+		// the paths left over from the last one
+		double cov=0.0;
+		Deepening search = new Deepening(g, node, maxDepth, bound);
+		
+		// paths and targets found so far, at any depth
+		PathManager npaths=new PathManager();
+		HashSet<String> foundT = new HashSet<String>();
+		while (cov < stop && search.depth() < maxDepth) {
+			PathManager layer = search.deepen();
+			npaths.addAll(layer);
 			
-			PathManager npaths=null;
-			while (cov < stop && atDepth <= (maxDepth)) {
-				npaths = this.findPaths(g, node, atDepth);
-				if (DebugTools.DEBUG && npaths.size() > 0) {
-					System.out.println(String.format("Found %d paths for starting node %s at depth %d.", 
-							npaths.size(), node, atDepth));
+			// how many targets covered? allows targets as internal.				
+			for (String t : targets) {
+				if (!foundT.contains(t) && layer.contains(t)) {
+					foundT.add(t);
 				}
-				// how many targets covered? allows targets as internal.				
-				int tfound=0;
-				for (String t : targets) {
-					if (npaths.contains(t)) {
-						tfound++;
-					}
-				}				
-				
-				cov=((double) tfound) / targets.size();
-				atDepth++;				
-				
-				
-				if (DebugTools.DEBUG) {
-					System.out.format("\tCovered %f (%d) of %d targets.\n", cov, tfound, targets.size());
-					for (Path p : npaths.allPaths()) {
-						System.out.println(p.toString());
-					}
+			}				
+			
+			// don't stop before the starting depth
+			if (search.depth() < this.depth) continue;
+			
+			if (DebugTools.DEBUG && npaths.size() > 0) {
+				System.out.println(String.format("Found %d paths for starting node %s at depth %d.", 
+						npaths.size(), node, search.depth()));
+			}
+			
+			int tfound=foundT.size();
+			cov=((double) tfound) / targets.size();
+			
+			
+			if (DebugTools.DEBUG) {
+				System.out.format("\tCovered %f (%d) of %d targets.\n", cov, tfound, targets.size());
+				for (Path p : npaths.allPaths()) {
+					System.out.println(p.toString());
 				}
-			}			
-
-			// npaths is null if node not in graph
-			if (npaths != null) found.addAll(npaths);			
-		}
-		
-		return found;
+			}
+		}			
+		return npaths;
 	}
 	
 
@@ -238,6 +467,10 @@ public class PairPathFinder extends PathFinder {
 	 * 
 	 * PATHFINDER	name	PairPathFinder	pairIndex	5 
 	 * 
+	 * Add PRUNE at the end of the line to turn on target-distance pruning,
+	 * and SIGNED to only keep paths whose sign matches their pair's
+	 * (handled in PathFinder.readPathFinder).
+	 * 
 	 * @param line
 	 * @param config
 	 * @return
@@ -275,8 +508,9 @@ public class PairPathFinder extends PathFinder {
 	
 	
 	public String toString() {	
-		return String.format("PairPathFinder %s pairs=%s, depth=%d", 
-				this.name, this.stPairs.filename(), this.depth);
+		return String.format("PairPathFinder %s pairs=%s, depth=%d%s%s", 
+				this.name, this.stPairs.filename(), this.depth, this.prune ? ", prune" : "",
+				this.signed ? ", signed" : "");
 	}
 	
 	@Override
@@ -1,17 +1,34 @@
 package pathfinders;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import structures.BranchyPath;
+import structures.CompactPathManager;
 import structures.Configuration;
 import structures.Edge;
 import structures.Graph;
 import structures.Graph.RType;
 import structures.Path;
+import structures.PathCountTable;
+import structures.PathCountTable.SourceCounts;
+import structures.PathCounter;
 import structures.PathManager;
+import structures.PathSink;
+import utilities.DebugTools;
+import utilities.GraphUtils;
 import exceptions.InvalidValueException;
 import filters.EdgeFilterManager;
 
@@ -69,6 +86,12 @@ public abstract class PathFinder {
 		ENDLESSPATHFINDER,
 		/* finds paths between specific source-target pairs */
 		PAIRPATHFINDER,
+		/* finds the same paths as the PairPathFinder, searching from both ends at once */
+		BIDIRECTIONALPAIRPATHFINDER,
+		/* finds at most k shortest paths between each source-target pair */
+		KSHORTESTPATHFINDER,
+		/* finds the highest-scoring paths between source-target pairs first */
+		BESTFIRSTPATHFINDER,
 		/* ...  in which the last edge is between a candidate regulator
 		 * and the target
 		 */
@@ -90,6 +113,40 @@ public abstract class PathFinder {
 	 */
 	protected CollapseMode collapseMode=CollapseMode.NO; //CollapseMode.ALL_BUT_LAST;
 	
+	/*
+	 * Relationship types we can follow out of a node during the search.
+	 */
+	protected static final RType[] FORWARD = { RType.OUTGOING, RType.UNDIRECTED };
+	
+	/*
+	 * ... and the ones that lead back to a node's predecessors.
+	 */
+	protected static final RType[] BACKWARD = { RType.INCOMING, RType.UNDIRECTED };
+	
+	/*
+	 * Number of start nodes to search from at once. 
+	 * If 1, we search them one at a time in the calling thread.
+	 */
+	protected int threads=1;
+	
+	/*
+	 * Edge filter managers that can reject a path before it's complete,
+	 * compiled for the graph we're searching (see prepare); null if none.
+	 */
+	protected EdgeFilterManager[] pruners;
+	
+	/*
+	 * Undirected edges of the graph we're searching whose reverse is also
+	 * in it (see twins); null if not prepared.
+	 */
+	protected Set<Edge> twins;
+	
+	/*
+	 * The graph that pruners (and any subclass's compiled state)
+	 * were last prepared for; null if never prepared.
+	 */
+	private Graph preparedFor;
+	
 	/**
 	 * Return the name of the PathFinder. (defined in the config file.)
 	 * @return	pathfinder's name
@@ -98,6 +155,24 @@ public abstract class PathFinder {
 		return this.name;
 	}
 	
+	/**
+	 * Sets the number of threads used to search from different
+	 * start nodes at the same time. The results don't depend on it.
+	 * @param threads	at least 1
+	 */
+	public void setThreads(int threads) {
+		assert(threads > 0) : "Need at least one search thread.";
+		this.threads=threads;
+	}
+	
+	/**
+	 * Number of threads used to search from different start nodes at once.
+	 * @return
+	 */
+	public int threads() {
+		return this.threads;
+	}
+	
 	/**
 	 * Adds an edge filter manager. May be applied to all paths before return from "findPaths".
 	 * @param efm
@@ -110,10 +185,74 @@ public abstract class PathFinder {
 	 * and stops searching immediately when an item in the "end" set is 
 	 * located.
 	 * @param g
-	 * @param depth
 	 * @return	a PathManager that contains the paths
 	 */
-	public abstract PathManager findPaths(Graph g);
+	public PathManager findPaths(Graph g) {
+		PathManager found = new PathManager();
+		this.findPaths(g, found);
+		return found;
+	}
+	
+	/**
+	 * Find paths, sending each one to the sink as it's found
+	 * (after post-processing and edge filters.)
+	 * @param g
+	 * @param sink
+	 */
+	public abstract void findPaths(Graph g, PathSink sink);
+	
+	/**
+	 * The nodes that can appear in a path this pathfinder saves.
+	 * Running the pathfinder on the subgraph on these nodes finds the same paths,
+	 * so we can shrink the graph before searching.
+	 * 
+	 * By default, returns null: we don't know which nodes matter, 
+	 * so the pathfinder gets the whole graph.
+	 * @param g	the graph we're going to search
+	 * @return	relevant nodes, or null to keep them all
+	 */
+	public Set<String> relevantNodes(Graph g) {
+		return null;
+	}
+	
+	/**
+	 * The part of the graph this pathfinder can find paths in:
+	 * the (frozen) subgraph on its relevant nodes, or g itself if
+	 * it needs the whole graph.
+	 * @param g
+	 * @return
+	 */
+	public Graph relevantSubgraph(Graph g) {
+		Set<String> keep = this.relevantNodes(g);
+		if (keep == null) return g;
+		return g.restrict(keep).freeze();
+	}
+	
+	/**
+	 * Finds the nodes on some walk from a start node to an end node 
+	 * within the search depth: forward distance from the nearest start 
+	 * plus backward distance to the nearest end is at most the depth.
+	 * Every node on a saved path of at most that many edges passes.
+	 * 
+	 * @param g
+	 * @param starts	start nodes
+	 * @param ends	end nodes; null if paths can end anywhere
+	 * @param depth	maximum path length, in edges
+	 * @return
+	 */
+	protected static Set<String> relevantNodes(Graph g, Collection<String> starts, 
+			Collection<String> ends, int depth) {
+		Map<String, Integer> fwd = GraphUtils.distances(g, starts, FORWARD, depth);
+		if (ends == null) return new HashSet<String>(fwd.keySet());
+		
+		Map<String, Integer> bwd = GraphUtils.distances(g, ends, BACKWARD, depth);
+		HashSet<String> keep = new HashSet<String>();
+		for (Map.Entry<String, Integer> f : fwd.entrySet()) {
+			Integer b = bwd.get(f.getKey());
+			if (b != null && f.getValue() + b <= depth) keep.add(f.getKey());
+		}
+		return keep;
+	}
 	
 	/**
 	 * Gets this object's list of edge filter managers.
@@ -132,11 +271,85 @@ public abstract class PathFinder {
 	 * @return	the path management object containing all of the found paths
 	 */
 	public PathManager findPaths(Graph g, String start, int depth) {
-		// stop immediately and return if start not in graph
-		if (!g.contains(start)) return null;
-
+		this.prepareFor(g);
+		return this.findPaths(g, start, depth, this.targetDistances(g, start, depth));
+	}
+	
+	/**
+	 * Works out ahead of time whatever verify(path, depth) can, for 
+	 * searching this graph (e.g., which nodes pass a filter). 
+	 * Called once before the searches from each start node, so it
+	 * has to be safe to call again for the same or another graph.
+	 * By default, finds the edge filter managers that can prune the search
+	 * and the twin edges; overrides should call super.prepare(g).
+	 * @param g	graph to be searched
+	 */
+	protected void prepare(Graph g) {
+		this.pruners = this.edgePruners(g);
+		this.twins = twins(g);
+		this.preparedFor = g;
+	}
+	
+	/**
+	 * Prepares for searching g, unless that's what we last prepared for.
+	 * The public single searches (findPaths from one start node, search)
+	 * call this, since they may be given a different graph than the last
+	 * full search was. (One graph at a time: don't search two graphs
+	 * with the same pathfinder at once.)
+	 * @param g	graph to be searched
+	 */
+	protected synchronized void prepareFor(Graph g) {
+		if (g != this.preparedFor) this.prepare(g);
+	}
+	
+	/**
+	 * Distances to the start node's targets, out to the given depth,
+	 * for pruning the search; null if we aren't pruning.
+	 * None by default.
+	 * @param g
+	 * @param start
+	 * @param depth
+	 * @return
+	 */
+	protected TargetDistances targetDistances(Graph g, String start, int depth) {
+		return null;
+	}
+	
+	/**
+	 * As findPaths(g, start, depth), but doesn't extend paths past nodes
+	 * that can't reach a target in the depth they have left.
+	 * 
+	 * Only safe if every path the subclass saves ends on one of the
+	 * targets given to the TargetDistances, and it never continues for free
+	 * (the distances count every edge).
+	 * @param g
+	 * @param start	starting node
+	 * @param depth	max depth in edges
+	 * @param bound	distances to the start node's targets; null for no pruning
+	 * @return	the path management object containing all of the found paths
+	 */
+	public PathManager findPaths(Graph g, String start, int depth, TargetDistances bound) {
+		this.prepareFor(g);
 		PathManager pm = new PathManager();
+		if (!this.findPaths(g, start, depth, bound, pm)) return null;
+		return pm;		
+	}
+	
+	/**
+	 * Searches from one start node, sending each path found to the sink.
+	 * @param g
+	 * @param start	starting node
+	 * @param depth	max depth in edges
+	 * @param bound	distances to the start node's targets; null for no pruning
+	 * @param sink	receives the paths
+	 * @return	false if the start node isn't in the graph
+	 */
+	protected boolean findPaths(Graph g, String start, int depth, TargetDistances bound, PathSink sink) {
+		// stop immediately and return if start not in graph
+		if (!g.contains(start)) return false;
 
+		PathSink filtered = this.filtered(sink);
+		
 		Path init = new Path(start);
 		PathStatus verify = this.verify(init, depth);
 
@@ -144,18 +357,270 @@ public abstract class PathFinder {
 		// check to see if the starting node is valid for the pathfinder subclass.
 		if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
 			validStatus=true;
-			pm.add(init, this.name());
+			filtered.accept(init, this.name());
 		} 
 
 		if (verify==PathStatus.CONTINUE || verify==PathStatus.SAVE_AND_CONTINUE || verify==PathStatus.CONTINUE_FOR_FREE){
 			validStatus=true;
 			// we have the OK to start looking!
-			pm = this.search(g, init, depth);
+			this.searchFrom(g, init, depth, bound, filtered);
 		}
 		
 		assert(validStatus):"Shouldn't have received status for starting node: " + verify.toString();
 		
-		return pm;		
+		return true;		
+	}
+	
+	/**
+	 * Runs findPaths(g, start, depth) from each start node in the graph
+	 * and sends the results to the sink in the order of the start nodes. 
+	 * Start nodes are searched in parallel if we have more than one thread;
+	 * each parallel search collects its paths until it's the next one's turn,
+	 * so the sink gets the same paths in the same order either way.
+	 * With one thread, paths go straight to the sink.
+	 * (The graph must not change during the search.)
+	 * 
+	 * @param g
+	 * @param startNodes
+	 * @param depth
+	 * @param sink
+	 */
+	protected void searchAll(final Graph g, Collection<String> startNodes, final int depth, 
+			final PathSink sink) {
+		this.prepare(g);
+		final boolean direct = this.threads <= 1;
+		ArrayList<Callable<PathManager>> tasks = new ArrayList<Callable<PathManager>>();
+		for (final String node : startNodes) {
+			if (!g.contains(node)) {
+				if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
+				continue;		
+			}
+			tasks.add(new Callable<PathManager>() {
+				public PathManager call() {
+					PathManager npaths = direct ? null : buffer(sink);
+					PathCounter counter = new PathCounter(direct ? sink : npaths);
+					findPaths(g, node, depth, targetDistances(g, node, depth), counter);
+					if (DebugTools.DEBUG && counter.count() > 0) {
+						System.out.println(String.format("Found %d paths for starting node %s.", 
+								counter.count(), node));
+					}
+					return npaths;
+				}
+			});
+		}
+		
+		for (PathManager npaths : this.runAll(tasks)) {
+			// npaths is null if we sent them straight to the sink
+			if (npaths != null) npaths.copyTo(sink);
+		}
+	}
+	
+	/**
+	 * Somewhere to hold paths on their way to the sink:
+	 * a CompactPathManager if that's where they're going.
+	 * @param sink
+	 * @return
+	 */
+	protected static PathManager buffer(PathSink sink) {
+		return sink instanceof CompactPathManager ? new CompactPathManager() : new PathManager();
+	}
+	
+	/**
+	 * Runs per-start-node searches, on a fork/join pool if we have more than
+	 * one thread, and returns their results in the same order as the tasks.
+	 * 
+	 * @param tasks	independent searches
+	 * @return	results, in order
+	 */
+	protected <T> List<T> runAll(List<Callable<T>> tasks) {
+		ArrayList<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if (this.threads <= 1 || tasks.size() <= 1) {
+				for (Callable<T> task : tasks) {
+					results.add(task.call());
+				}
+				return results;
+			}
+			
+			ForkJoinPool pool = new ForkJoinPool(Math.min(this.threads, tasks.size()));
+			try {
+				for (Future<T> f : pool.invokeAll(tasks)) {
+					results.add(f.get());
+				}
+			} finally {
+				pool.shutdown();
+			}
+			return results;
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException(cause);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during search.", ie);
+		} catch (RuntimeException re) {
+			throw re;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Counts the paths this pathfinder would find from each start node,
+	 * by target and length, without keeping them.
+	 * 
+	 * For each start node, we first estimate the number of paths by 
+	 * sampling random branches of the search (see estimatePaths). If the
+	 * estimate is at most exactLimit, we run the search and count the 
+	 * paths exactly; otherwise we report the estimate. The exact count
+	 * doesn't keep the paths either: they go straight to the counts, and
+	 * repeats are dropped without remembering the rest (see withoutRepeats).
+	 * 
+	 * Counts are for the deepest search the pathfinder would run, but since
+	 * they're broken down by length, they also say how many paths a
+	 * shallower search would find.
+	 * 
+	 * @param g
+	 * @param samples	number of random branches to sample per start node
+	 * @param exactLimit	count exactly if the estimate is at most this many
+	 * @return	the counts, or null if this pathfinder can't count its paths
+	 */
+	public PathCountTable countPaths(final Graph g, final int samples, final long exactLimit) {
+		Collection<String> startNodes = this.countStartNodes(g);
+		if (startNodes == null) return null;
+		final int depth = this.countDepth();
+		this.prepare(g);
+		
+		ArrayList<Callable<SourceCounts>> tasks = new ArrayList<Callable<SourceCounts>>();
+		for (final String node : startNodes) {
+			if (!g.contains(node)) continue;
+			tasks.add(new Callable<SourceCounts>() {
+				public SourceCounts call() {
+					TargetDistances bound = targetDistances(g, node, depth);
+					// same seed for a start node every time
+					Random rand = new Random(node.hashCode());
+					SourceCounts est = estimatePaths(g, node, depth, bound, samples, rand);
+					if (est.total() > exactLimit) return est;
+					
+					SourceCounts exact = new SourceCounts(node, depth, true);
+					findPaths(g, node, depth, bound, exact);
+					return exact;
+				}
+			});
+		}
+		
+		PathCountTable table = new PathCountTable(this.name(), depth);
+		for (SourceCounts sc : this.runAll(tasks)) {
+			table.add(sc);
+		}
+		return table;
+	}
+	
+	/**
+	 * The start nodes to count paths from, or null if we can't count
+	 * this pathfinder's paths. (Not by default.)
+	 * @param g
+	 * @return
+	 */
+	protected Collection<String> countStartNodes(Graph g) {
+		return null;
+	}
+	
+	/**
+	 * Depth of the deepest search this pathfinder runs.
+	 * @return
+	 */
+	protected int countDepth() {
+		return 0;
+	}
+
+	/**
+	 * Can this pathfinder's search be run in a BatchSearch?
+	 * Only if findPaths(g, sink) is the same as searchAll from the
+	 * countStartNodes to the countDepth, and the search saves each
+	 * path as it is (no collapsing, no continuing for free).
+	 * (Not by default.)
+	 * @return
+	 */
+	protected boolean batchable() {
+		return false;
+	}
+	
+	/**
+	 * Estimates the number of paths a search from the start node would find,
+	 * by target and length, without running the whole search 
+	 * (Knuth's estimator for the size of a search tree). 
+	 * 
+	 * Each sample follows one random branch of the search from the start node.
+	 * At each step, the paths saved there count once for every branch the 
+	 * sample skipped to get there (the product of the branching factors so far),
+	 * so the average over samples is an unbiased estimate of the number of paths 
+	 * the search would find. It's least reliable when a few rare branches
+	 * hold most of the paths.
+	 * 
+	 * Post-processing and edge filters aren't applied, so this estimates
+	 * the paths found before they're filtered. Only for pathfinders that 
+	 * never continue for free.
+	 * 
+	 * @param g
+	 * @param start	start node (must be in the graph)
+	 * @param depth	max depth in edges
+	 * @param bound	distances to the start node's targets; null for no pruning
+	 * @param samples	number of random branches to follow
+	 * @param rand
+	 * @return
+	 */
+	protected SourceCounts estimatePaths(Graph g, String start, int depth, TargetDistances bound, 
+			int samples, Random rand) {
+		SourceCounts counts = new SourceCounts(start, depth, false);
+		
+		Path init = new Path(start);
+		PathStatus verify = this.verify(init, depth);
+		if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
+			counts.add(start, 0, 1);
+		}
+		if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.STOP
+				|| depth==0 || !inRange(bound, init, depth)) {
+			return counts;
+		}
+		
+		ArrayList<Path> branches = new ArrayList<Path>();
+		for (int s = 0; s < samples; s++) {
+			Path p = init;
+			int left = depth;
+			// each sample gets an equal share
+			double weight = 1.0 / samples;
+			while (true) {
+				// same steps as searchFrom
+				branches.clear();
+				Frame frame = new Frame(g, p, left);
+				for (Edge e = frame.next(); e != null; e = frame.next()) {
+					Path next = p.copyAdd(e);
+					if (next==null) continue;
+					
+					verify = this.verify(next, left);
+					assert(verify != PathStatus.CONTINUE_FOR_FREE) : 
+						"Continuing for free not implemented for counting paths.";
+					
+					if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
+						for (String t : next.termini()) {
+							counts.add(t, next.edgeLength(), weight);
+						}
+					}
+					if ((verify==PathStatus.SAVE_AND_CONTINUE || verify==PathStatus.CONTINUE)
+							&& left > 1 && inRange(bound, next, left-1)) {
+						branches.add(next);
+					}
+				}
+				if (branches.isEmpty()) break;
+				
+				weight *= branches.size();
+				p = branches.get(rand.nextInt(branches.size()));
+				left--;
+			}
+		}
+		return counts;
 	}
 	
 	/** 
@@ -178,8 +643,9 @@ public abstract class PathFinder {
 	protected abstract PathStatus verify(Path p, int depth);
 	
 	/**
-	 * Recursively continues a depth-limited, depth-first search from the 
-	 * last node in the current path.
+	 * Continues a depth-limited, depth-first search from the 
+	 * last node in the current path. Post-processing and the edge
+	 * filter managers are run on each path as it's found.
 	 * 
 	 * @param g	our graph
 	 * @param currPath	the path so far
@@ -187,119 +653,433 @@ public abstract class PathFinder {
 	 * @return	paths found from this point forward
 	 */
 	public PathManager search(Graph g, Path currPath, int depth) {
+		this.prepareFor(g);
 		PathManager found = new PathManager();
-
-		// if depth == 0, can stop. return no paths.
-		if (depth==0) return found;
-
-		// get the last node
-		String last = currPath.getNode(-1);
-
-		// check outgoing and undirected edges
-		HashSet<Edge> further = new HashSet<Edge>(g.incident(last, RType.OUTGOING));
-		further.addAll(g.incident(last, RType.UNDIRECTED));
-
-		// for each outgoing path...
-		
-		// keep track of any paths that terminate on the next edge
-		// we may wish to collapse them into a BranchyPath
-		ArrayList<Edge> potentialBranches = new ArrayList<Edge>();
+		this.searchFrom(g, currPath, depth, null, this.filtered(found));
+		return found;
+	}
+	
+	/**
+	 * Wraps a sink so that each path is post-processed and run through
+	 * the edge filter managers once, on its way in.
+	 * 
+	 * Equal paths (which differ only in parallel edges) are only
+	 * considered the first time one is found, as if we'd collected
+	 * them in a PathManager before filtering (see withoutRepeats).
+	 * So use one of these per search.
+	 * @param sink
+	 * @return
+	 */
+	protected PathSink filtered(final PathSink sink) {
+		final Collection<EdgeFilterManager> efms = this.getEdgeFilterManagers();
+		return this.withoutRepeats(new PathSink() {
+			public void accept(Path p, String label) {
+				// run post-processing, if implemented
+				Path q = postProcessPath(p);
+				if (q == null) return;
+				
+				// run edge filter managers (specified in config)
+				if (efms != null) {
+					for (EdgeFilterManager efm : efms) {
+						if (!efm.accept(q.edges())) return;
+					}
+				}
+				sink.accept(q, label);
+			}
+		});
+	}
+	
+	/**
+	 * Wraps a sink so that it only gets the first of any equal paths.
+	 * 
+	 * Paths are equal if they have the same nodes, directions and signs. 
+	 * Two different paths can only be equal if one of them takes an 
+	 * undirected edge that's also in the graph the other way round 
+	 * (see twins), or if they're BranchyPaths, whose terminal edges 
+	 * don't show. So only paths like those are remembered; the rest go 
+	 * straight through without being kept. (If we haven't been prepared
+	 * for a graph, every path is remembered.)
+	 * @param sink
+	 * @return
+	 */
+	protected PathSink withoutRepeats(final PathSink sink) {
+		final Set<Edge> twins = this.twins;
+		final HashSet<Path> seen = new HashSet<Path>();
+		return new PathSink() {
+			public void accept(Path p, String label) {
+				if (mayRepeat(p, twins) && !seen.add(p)) return;
+				sink.accept(p, label);
+			}
+		};
+	}
+	
+	/**
+	 * Could the path be equal to a different one? (See withoutRepeats.)
+	 * @param p
+	 * @param twins	twin edges, or null if we don't know them
+	 * @return
+	 */
+	static boolean mayRepeat(Path p, Set<Edge> twins) {
+		if (twins == null || p instanceof BranchyPath) return true;
+		if (twins.isEmpty()) return false;
+		for (Edge e : p.edges()) {
+			if (twins.contains(e)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the undirected edges whose reverse is also in the graph
+	 * (e.g., a--b and b--a with the same sign). A path can take either
+	 * one and get the same string. Usually there are none.
+	 * @param g
+	 * @return
+	 */
+	static Set<Edge> twins(Graph g) {
+		HashSet<Edge> twins = new HashSet<Edge>();
+		for (Edge e : g.edges()) {
+			if (!e.isDirected() && !e.isSelfLoop() && g.contains(e.reverse())) {
+				twins.add(e);
+			}
+		}
+		return twins;
+	}
+	
+	/**
+	 * The depth-first search itself. Keeps its own stack of frames
+	 * instead of recursing, and extends paths with Path.copyAdd, which
+	 * shares the prefix instead of copying it; only the paths we save
+	 * ever get their node and edge lists built.
+	 * 
+	 * Paths that the edge filter managers are already sure to reject 
+	 * (see edgePruners, once prepared) are neither saved nor extended.
+	 * 
+	 * @param g	our graph
+	 * @param start	the path so far
+	 * @param depth	maximum depth remaining (if 0, stop immediately)
+	 * @param bound	if not null, skip paths that can't reach a target in the depth left 
+	 * @param found	receives saved paths
+	 */
+	protected void searchFrom(Graph g, Path start, int depth, TargetDistances bound, PathSink found) {
+		// if depth == 0, can stop. no paths.
+		if (depth==0) return;
+		// no target in range at all
+		if (!inRange(bound, start, depth)) return;
 		
+		// edge filters for the path so far
+		EdgeFilterManager[] pruners = this.pruners;
+		int[] tally = null;
+		if (pruners != null) {
+			tally = new int[pruners.length];
+			for (Edge e : start.edges()) {
+				tally = tally(pruners, tally, e);
+				if (tally == null) return;
+			}
+		}
 		
-		for (Edge e : further) {
-			// make a copy of the current path PLUS the new edge.
-			Path next = currPath.copyAdd(e);
+		ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(g, start, depth, tally));
+		while (!stack.isEmpty()) {
+			Frame top = stack.peek();
+			Edge e = top.next();
 			
-			if (e.nodes().contains("YOR141C") && e.nodes().contains("YLR113C")) {
-				System.out.println("pause");
+			// tried all edges out of this path: done with it
+			if (e == null) {
+				stack.pop();
+				this.collapse(top, found);
+				continue;
 			}
-
+			
+			// extend the current path along the new edge.
 			// If addition fails, the edge must have introduced a cycle.
 			// skip this edge.
+			Path next = top.path.copyAdd(e);
 			if (next==null) continue;
+			
+			// will the edge filters reject it, however it continues?
+			if (pruners != null) {
+				tally = tally(pruners, top.tally, e);
+				if (tally == null) continue;
+			}
 
 			// otherwise, check the path against the PathFinder subclass.
-			PathStatus verify = this.verify(next, depth);
+			PathStatus verify = this.verify(next, top.depth);
 			
 			// save path.
 			if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
-				// Save the path and stop! woo
 				// If we are trying to collapse paths, then we'll want to
 				// just grab the edge.
 				if (this.collapseMode==CollapseMode.ALL_BUT_LAST) {
-					potentialBranches.add(e);	
+					top.branch(e);
 				} else {
 					// But, usually we just save the path.
-					found.add(next, this.name());
+					found.accept(next, this.name());
 				}				
 			} 
 			
-			// Stop search
-			if (verify ==PathStatus.SAVE_AND_STOP || verify==PathStatus.STOP) {
-				continue;
-			}
-			
 			//continue?
 			if (verify == PathStatus.SAVE_AND_CONTINUE || verify==PathStatus.CONTINUE) {
-				// Keep looking
-				PathManager deeper = search(g, next, depth-1);
-				found.addAll(deeper);
+				// Keep looking, if there's depth left
+				if (top.depth > 1 && inRange(bound, next, top.depth-1)) {
+					stack.push(new Frame(g, next, top.depth-1, tally));
+				}
 			} 
 			// Continue without counting against depth
 			// Don't currently have "save and continue for free"...
 			else if (verify == PathStatus.CONTINUE_FOR_FREE) {
-				PathManager deeper = search(g, next, depth);
-				found.addAll(deeper); 
+				if (inRange(bound, next, top.depth)) stack.push(new Frame(g, next, top.depth, tally));
 			} 
-						
 		}
+	}
+	
+	/**
+	 * The edge filter managers that can reject a path before it's 
+	 * complete (see EdgeFilterManager.prunes), so the search can stop 
+	 * extending it; null if there aren't any. 
+	 * 
+	 * None if we collapse paths, since a collapsed path is filtered 
+	 * on all of its final edges together. Subclasses whose postProcessPath
+	 * changes a path's edges shouldn't prune either.
+	 * @param g	graph to be searched, to compile the managers for
+	 * @return
+	 */
+	protected EdgeFilterManager[] edgePruners(Graph g) {
+		Collection<EdgeFilterManager> efms = this.getEdgeFilterManagers();
+		if (efms == null || this.collapseMode != CollapseMode.NO) return null;
+		
+		ArrayList<EdgeFilterManager> pruners = new ArrayList<EdgeFilterManager>();
+		for (EdgeFilterManager efm : efms) {
+			if (efm.prunes()) pruners.add(efm.compile(g));
+		}
+		return pruners.isEmpty() ? null : pruners.toArray(new EdgeFilterManager[pruners.size()]);
+	}
+	
+	/**
+	 * Adds an edge to each pruning edge filter manager's tally 
+	 * (see EdgeFilterManager.extend).
+	 * @param pruners
+	 * @param before	tallies for the path so far
+	 * @param e	next edge
+	 * @return	new tallies (before itself, if they didn't change), 
+	 * 			or null if any manager rejects the path
+	 */
+	static int[] tally(EdgeFilterManager[] pruners, int[] before, Edge e) {
+		int[] after = before;
+		for (int i = 0; i < pruners.length; i++) {
+			int t = pruners[i].extend(before[i], e);
+			if (t == EdgeFilterManager.REJECT) return null;
+			if (t != before[i]) {
+				if (after == before) after = before.clone();
+				after[i] = t;
+			}
+		}
+		return after;
+	}
+	
+	/**
+	 * Could the path still reach a target with this much depth left?
+	 * Always true if we aren't pruning.
+	 */
+	static boolean inRange(TargetDistances bound, Path p, int depth) {
+		return bound == null || bound.reachable(p, depth);
+	}
+	
+	/**
+	 * Saves the paths that end on the final edges collected in a frame, 
+	 * collapsed into a BranchyPath if there are several. 
+	 * (Only for CollapseMode.ALL_BUT_LAST.)
+	 */
+	protected void collapse(Frame frame, PathSink found) {
+		ArrayList<Edge> potentialBranches = frame.branches;
+		if (potentialBranches == null) return;
 		
-		// Should we try to collapse the outgoing paths into BranchyPaths?
-		// This mode is chosen by the active implementation/extension of PathFinder.
-		if (this.collapseMode==CollapseMode.ALL_BUT_LAST && potentialBranches.size() > 0 ) {
-			Path next;
-			// If only one, don't collapse it.
-			if (potentialBranches.size() == 1) {
-				next = currPath.copyAdd(potentialBranches.get(0));
-			} else {
-				HashSet<String> termini = new HashSet<String>();
-				HashSet<Edge> termEdges = new HashSet<Edge>(potentialBranches);
-				for (Edge e : potentialBranches) {
-					// get the terminal node - the one that isn't the current node
-					for (String n : e.nodes()) {
-						if (!n.equals(last)) {
-							termini.add(n);
-						}
-					}
-				}
-				next = new BranchyPath(currPath, termini, termEdges);
+		Path next;
+		// If only one, don't collapse it.
+		if (potentialBranches.size() == 1) {
+			next = frame.path.copyAdd(potentialBranches.get(0));
+		} else {
+			String last = frame.path.getNode(-1);
+			HashSet<String> termini = new HashSet<String>();
+			HashSet<Edge> termEdges = new HashSet<Edge>(potentialBranches);
+			for (Edge e : potentialBranches) {
+				// get the terminal node - the one that isn't the current node
+				termini.add(e.other(last));
 			}
-			// add!
-			found.add(next, this.name());
-		}		
+			next = new BranchyPath(frame.path, termini, termEdges);
+		}
+		// add!
+		found.accept(next, this.name());
+	}
+	
+	/**
+	 * One level of the depth-first search: a path, the depth left, 
+	 * and where we are in the list of edges out of its last node.
+	 */
+	protected static class Frame {
+		protected final Path path;
+		protected final int depth;
+		
+		private final Graph g;
+		private final String last;
+		private int type=0;
+		private Iterator<Edge> edges;
+		private boolean deadEnd=true;
+		
+		// final edges of saved paths, to collapse into a BranchyPath
+		private ArrayList<Edge> branches;
 		
-		// run post-processing, if implemented
-		found=this.applyPostProcessing(found);
+		// the pruning edge filters' tallies for the path (see edgePruners)
+		protected final int[] tally;
 		
-		// run edge filter managers (specified in config)
-		if (this.getEdgeFilterManagers() != null) {
-			for (EdgeFilterManager efm : this.getEdgeFilterManagers()) {
-				PathManager newFound = PathManager.applyEdgeFilter(found, efm);
-				found=newFound;
+		protected Frame(Graph g, Path path, int depth) {
+			this(g, path, depth, null);
+		}
+		
+		protected Frame(Graph g, Path path, int depth, int[] tally) {
+			this.g=g;
+			this.path=path;
+			this.depth=depth;
+			this.tally=tally;
+			this.last=path.getNode(-1);
+			this.edges=g.incidentView(this.last, FORWARD[0]).iterator();
+		}
+		
+		/**
+		 * Next outgoing or undirected edge to try, or null if there are no more.
+		 */
+		protected Edge next() {
+			while (!this.edges.hasNext()) {
+				if (++this.type == FORWARD.length) return null;
+				this.edges = this.g.incidentView(this.last, FORWARD[this.type]).iterator();
 			}
-		}		
+			this.deadEnd=false;
+			return this.edges.next();
+		}
+		
+		/**
+		 * True if the path's last node has no outgoing or undirected edges.
+		 * (Only meaningful once next() has returned null.)
+		 */
+		protected boolean deadEnd() {
+			return this.deadEnd;
+		}
+		
+		protected void branch(Edge e) {
+			if (this.branches == null) this.branches = new ArrayList<Edge>();
+			this.branches.add(e);
+		}
+	}
+	
+	/**
+	 * Iterative deepening from one start node that picks up where the 
+	 * last depth left off, instead of searching from scratch at each depth.
+	 * 
+	 * We keep the frontier: the paths of the current length that the search
+	 * would keep extending. Each call to deepen() extends only those by one 
+	 * edge, and returns just the paths saved at the new length. Since a
+	 * search to depth d saves exactly the paths of length at most d, the 
+	 * paths from the first d layers are what findPaths(g, start, d) finds.
+	 * 
+	 * Only for pathfinders whose verify(path, depth) looks at the depth 
+	 * only to stop when it's 0, and which never continue for free.
+	 * (True of the pair pathfinders.)
+	 */
+	protected class Deepening {
+		private final Graph g;
+		private final int maxDepth;
+		private final TargetDistances bound;
+		
+		// paths of the current length that can still be extended
+		private ArrayList<Path> frontier = new ArrayList<Path>();
+		// length of the paths found so far
+		private int depth=0;
+		
+		/**
+		 * @param g
+		 * @param start	start node (must be in the graph)
+		 * @param maxDepth	we'll never search past this depth
+		 * @param bound	distances to the start node's targets, out to 
+		 * 				maxDepth; null for no pruning
+		 */
+		protected Deepening(Graph g, String start, int maxDepth, TargetDistances bound) {
+			this.g=g;
+			this.maxDepth=maxDepth;
+			this.bound=bound;
 			
-		return found;
+			Path init = new Path(start);
+			PathStatus verify = verify(init, maxDepth);
+			if ((verify==PathStatus.CONTINUE || verify==PathStatus.SAVE_AND_CONTINUE) 
+					&& maxDepth > 0 && inRange(bound, init, maxDepth)) {
+				this.frontier.add(init);
+			}
+		}
+		
+		/**
+		 * Length of the longest paths found so far.
+		 */
+		protected int depth() {
+			return this.depth;
+		}
+		
+		/**
+		 * Extends the frontier by one edge. 
+		 * @return	the paths saved at the new depth, after post-processing 
+		 * 			and edge filters
+		 */
+		protected PathManager deepen() {
+			assert(this.depth < this.maxDepth) : "Already at max depth.";
+			this.depth++;
+			
+			PathManager found = new PathManager();
+			// equal paths have the same length, so they're always in the same layer
+			PathSink out = filtered(found);
+			ArrayList<Path> next = new ArrayList<Path>();
+			// bodies in the order a depth-first search would reach them,
+			// so we keep the same one of any equal paths.
+			for (Path body : this.frontier) {
+				// one edge left to add at this depth
+				Frame frame = new Frame(this.g, body, 1);
+				for (Edge e = frame.next(); e != null; e = frame.next()) {
+					Path p = body.copyAdd(e);
+					if (p==null) continue;
+					
+					PathStatus verify = verify(p, 1);
+					assert(verify != PathStatus.CONTINUE_FOR_FREE) : 
+						"Continuing for free not implemented for incremental deepening.";
+					
+					if (verify==PathStatus.SAVE_AND_STOP || verify==PathStatus.SAVE_AND_CONTINUE) {
+						if (collapseMode==CollapseMode.ALL_BUT_LAST) {
+							frame.branch(e);
+						} else {
+							out.accept(p, name());
+						}
+					}
+					
+					// keep it for the next layer, if there is one 
+					// and it can still reach a target
+					if ((verify==PathStatus.CONTINUE || verify==PathStatus.SAVE_AND_CONTINUE)
+							&& this.depth < this.maxDepth 
+							&& inRange(this.bound, p, this.maxDepth - this.depth)) {
+						next.add(p);
+					}
+				}
+				collapse(frame, out);
+			}
+			this.frontier = next;
+			
+			return found;
+		}
 	}
 	
 	/**
-	 * Runs any post-processing filters that the PathFinder has implemented.
+	 * Runs any post-processing that the PathFinder has implemented
+	 * on a path found in the search.
 	 * By default, don't do anything.
-	 * @param found
-	 * @return
+	 * @param p
+	 * @return	the path to keep, or null to drop it
 	 */
-	protected PathManager applyPostProcessing(PathManager found) {
-		return found;
+	protected Path postProcessPath(Path p) {
+		return p;
 	}
 	
 	
@@ -308,6 +1088,17 @@ public abstract class PathFinder {
 	 * The specific PathFinder subclass is described in the third column. 
 	 * Example:
 	 * PATHFINDER	name	BasicPathFinder	...
+	 * 
+	 * Pair pathfinders (PairPathFinder and its subclasses) can end the 
+	 * line with PRUNE to turn on target-distance pruning
+	 * (not the BidirectionalPairPathFinder, KShortestPathFinder or BestFirstPathFinder,
+	 * which bound their searches their own way):
+	 * PATHFINDER	name	PairPathFinder	pairIndex	5	PRUNE
+	 * and/or SIGNED, to only keep paths whose sign matches the sign
+	 * of their source-target pair (not for the KShortestPathFinder):
+	 * PATHFINDER	name	PairPathFinder	pairIndex	5	PRUNE	SIGNED
+	 * SIGNED on its own only drops paths after they're found; the search
+	 * itself only gets smaller with PRUNE as well.
 	 * @param line
 	 * @param config
 	 * @return
@@ -325,6 +1116,16 @@ public abstract class PathFinder {
 			throw new InvalidValueException("Unimplemented pathfinder type: " + Arrays.toString(line));
 		}
 		
+		// strip the pruning and sign flags, so the subclasses see the columns they expect
+		boolean prune = false, signed = false;
+		while (line.length > 3) {
+			String flag = line[line.length-1];
+			if (flag.equalsIgnoreCase(Configuration.PRUNE)) prune = true;
+			else if (flag.equalsIgnoreCase(Configuration.SIGNED)) signed = true;
+			else break;
+			line = Arrays.copyOf(line, line.length-1);
+		}
+		
 		PathFinder pf=null;
 		switch(imp) {
 		case BASICPATHFINDER: 
@@ -337,11 +1138,38 @@ public abstract class PathFinder {
 			pf = EndlessPathFinder.readPathFinder(line, config); break;
 		case PAIRPATHFINDER:
 			pf = PairPathFinder.readPathFinder(line, config); break;
+		case BIDIRECTIONALPAIRPATHFINDER:
+			pf = BidirectionalPairPathFinder.readPathFinder(line, config); break;
+		case KSHORTESTPATHFINDER:
+			pf = KShortestPathFinder.readPathFinder(line, config); break;
+		case BESTFIRSTPATHFINDER:
+			pf = BestFirstPathFinder.readPathFinder(line, config); break;
 		case REGPAIRPATHFINDER:
 			pf = RegPairPathFinder.readPathFinder(line, config); break;
 		case SOURCEREGTARGETPATHFINDER:
 			pf = SourceRegTargetPathFinder.readPathFinder(line, config); break;
-		}					
+		}
+		
+		if (prune) {
+			// the bidirectional search finds its targets from the other end,
+			// the k shortest are found one target at a time, and the
+			// best-first search always bounds its paths by target distance
+			if (!(pf instanceof PairPathFinder) || pf instanceof BidirectionalPairPathFinder
+					|| pf instanceof KShortestPathFinder || pf instanceof BestFirstPathFinder) {
+				throw new InvalidValueException("Target-distance pruning is only available for pair pathfinders "
+						+ "(other than the BidirectionalPairPathFinder, KShortestPathFinder and BestFirstPathFinder): " 
+						+ Arrays.toString(line));
+			}
+			((PairPathFinder) pf).setPruning(true);
+		}
+		if (signed) {
+			// the k shortest would count paths we then throw out
+			if (!(pf instanceof PairPathFinder) || pf instanceof KShortestPathFinder) {
+				throw new InvalidValueException("Sign consistency is only available for pair pathfinders "
+						+ "(other than the KShortestPathFinder): " + Arrays.toString(line));
+			}
+			((PairPathFinder) pf).setSigned(true);
+		}
 		return pf;
 	}
 }
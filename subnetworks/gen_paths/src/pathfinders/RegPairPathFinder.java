@@ -64,17 +64,6 @@ public class RegPairPathFinder extends PairPathFinder {
 		}	
 	}
 	
-	/**
-	 * Runs iterative deepening if we have the right flag set
-	 */
-	@Override
-	public PathManager findPaths(Graph g) {
-		if (this.iterativeDeepening) {
-			return findPathsIterative(g);
-		} else
-			return findPaths(g);
-	}
-	
 	/**
 	 * Reads a pairpathfinder given a line and config.
 	 * It takes a PairIndex object to designate start and endpoints.
@@ -85,6 +74,8 @@ public class RegPairPathFinder extends PairPathFinder {
 	 * (not implemented yet)
 	 * PATHFINDER	name	RegPairPathFinder	pairIndex	5 7
 	 * 
+	 * Can end with PRUNE for target-distance pruning.
+	 * 
 	 * @param line
 	 * @param config
 	 * @return
@@ -127,8 +118,9 @@ public class RegPairPathFinder extends PairPathFinder {
 	
 	
 	public String toString() {	
-		return String.format("RegPairPathFinder %s pairs=%s, final_edge_manager=%s, depth=%d", 
-				this.name, this.stPairs.filename(), this.finalEdgeFilter.name(), this.depth);
+		return String.format("RegPairPathFinder %s pairs=%s, final_edge_manager=%s, depth=%d%s%s", 
+				this.name, this.stPairs.filename(), this.finalEdgeFilter.name(), this.depth, 
+				this.prune ? ", prune" : "", this.signed ? ", signed" : "");
 	}
 
 }
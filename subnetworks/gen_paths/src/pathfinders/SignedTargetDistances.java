@@ -0,0 +1,149 @@
+package pathfinders;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import structures.Edge;
+import structures.Graph;
+import structures.Path;
+import utilities.Enums.Sign;
+
+/**
+ * Target distances for a search in which each target has a required sign
+ * (the source activates or inhibits it), and a path only counts if its sign
+ * (the product of its edges' signs) matches.
+ *
+ * For each node, and each sign a path could have when it gets there, we keep
+ * the distance to the nearest target it could still reach with the right sign:
+ * e.g., a positive path needs an odd number of negative edges to reach
+ * a negative target. An edge of unknown sign makes the path's sign unknown,
+ * which is consistent with any target, as is a target with no required sign.
+ *
+ * Every way on to a target suits one sign or the other, so the nearer of a
+ * node's two distances is its plain distance, which we use for paths of
+ * unknown sign. Like those, these distances ignore the no-cycles rule,
+ * so they never overestimate.
+ *
+ * Read-only once built.
+ */
+public class SignedTargetDistances extends TargetDistances {
+
+	/*
+	 * Node -> distance to the nearest target for a path that is
+	 * positive (0) or negative (1) when it reaches the node;
+	 * -1 if farther than the bound.
+	 */
+	private final HashMap<String, int[]> signed;
+	private final int bound;
+
+	/**
+	 * Runs the reverse search from the targets, out to the given bound,
+	 * keeping track of the sign a path needs at each node.
+	 * @param g	the search graph
+	 * @param targets	targets and their required signs (those not in the graph are ignored)
+	 * @param bound	largest distance we care about (e.g. maximum search depth)
+	 */
+	public SignedTargetDistances(Graph g, Map<String, Sign> targets, int bound) {
+		this(signedDistances(g, targets, bound), bound);
+	}
+
+	private SignedTargetDistances(HashMap<String, int[]> signed, int bound) {
+		super(nearest(signed), bound);
+		this.signed = signed;
+		this.bound = bound;
+	}
+
+	/**
+	 * The reverse breadth-first search, over (node, sign so far) pairs.
+	 */
+	private static HashMap<String, int[]> signedDistances(Graph g, Map<String, Sign> targets, int bound) {
+		HashMap<String, int[]> signed = new HashMap<String, int[]>();
+
+		// one frontier per sign of the path so far
+		ArrayList<ArrayList<String>> frontier = frontiers();
+		for (Map.Entry<String, Sign> t : targets.entrySet()) {
+			if (!g.contains(t.getKey())) continue;
+			Sign req = t.getValue();
+			if (req != Sign.NEGATIVE) visit(signed, t.getKey(), 0, 0, frontier);
+			if (req != Sign.POSITIVE) visit(signed, t.getKey(), 1, 0, frontier);
+		}
+
+		for (int d = 1; d <= bound && !(frontier.get(0).isEmpty() && frontier.get(1).isEmpty()); d++) {
+			ArrayList<ArrayList<String>> next = frontiers();
+			for (int s = 0; s < 2; s++) {
+				for (String v : frontier.get(s)) {
+					for (int type = 0; type < PathFinder.BACKWARD.length; type++) {
+						for (Edge e : g.incidentView(v, PathFinder.BACKWARD[type])) {
+							String u = e.other(v);
+							switch (e.sign()) {
+							// any sign works before an unknown edge
+							case UNKNOWN:
+								visit(signed, u, 0, d, next);
+								visit(signed, u, 1, d, next);
+								break;
+							case POSITIVE:
+								visit(signed, u, s, d, next);
+								break;
+							case NEGATIVE:
+								visit(signed, u, 1-s, d, next);
+								break;
+							}
+						}
+					}
+				}
+			}
+			frontier = next;
+		}
+		return signed;
+	}
+
+	private static ArrayList<ArrayList<String>> frontiers() {
+		ArrayList<ArrayList<String>> f = new ArrayList<ArrayList<String>>(2);
+		f.add(new ArrayList<String>());
+		f.add(new ArrayList<String>());
+		return f;
+	}
+
+	/**
+	 * Records the distance for a node and sign, if it's the first time we've seen them.
+	 */
+	private static void visit(HashMap<String, int[]> signed, String node, int s, int d,
+			ArrayList<ArrayList<String>> frontier) {
+		int[] dist = signed.get(node);
+		if (dist == null) {
+			dist = new int[] {-1, -1};
+			signed.put(node, dist);
+		}
+		if (dist[s] >= 0) return;
+		dist[s] = d;
+		frontier.get(s).add(node);
+	}
+
+	/**
+	 * Plain distances: the nearer of each node's two.
+	 */
+	private static HashMap<String, Integer> nearest(HashMap<String, int[]> signed) {
+		HashMap<String, Integer> dist = new HashMap<String, Integer>();
+		for (Map.Entry<String, int[]> n : signed.entrySet()) {
+			int[] d = n.getValue();
+			dist.put(n.getKey(), d[0] < 0 ? d[1] : (d[1] < 0 ? d[0] : Math.min(d[0], d[1])));
+		}
+		return dist;
+	}
+
+	/**
+	 * Can the path still reach a target, with the right sign, in at most
+	 * depth more edges? (Always true past the bound, since we don't know.)
+	 */
+	@Override
+	public boolean reachable(Path p, int depth) {
+		Sign s = p.sign();
+		if (s == Sign.UNKNOWN) return this.reachable(p.getNode(-1), depth);
+		if (depth > this.bound) return true;
+		int[] dist = this.signed.get(p.getNode(-1));
+		int d = dist == null ? -1 : dist[s == Sign.POSITIVE ? 0 : 1];
+		return d >= 0 && d <= depth;
+	}
+
+}
@@ -1,19 +1,24 @@
 package pathfinders;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import structures.BranchyPath;
 import structures.Configuration;
 import structures.Edge;
 import structures.Graph;
 import structures.Graph.RType;
+import structures.Pair;
 import structures.PairDirectory;
 import structures.PairDirectory.PartialOrder;
 import structures.Path;
 import structures.PathManager;
+import structures.PathSink;
 import utilities.DebugTools;
 import exceptions.InvalidValueException;
 import filters.EdgeFilterManager;
@@ -67,8 +72,19 @@ public class SourceRegTargetPathFinder extends PairPathFinder {
 	}
 
 	public String toString() {	
-		return String.format("SourceRegTargetPathFinder %s: source target pairs=%s, source reg pairs=%s, start depth=%d, max depth=%d, reg_coverage>=%f", 
-				this.name, this.stPairs.filename(), this.penultimateFilter.filename(), this.depth, this.maxDepth, this.stop);
+		return String.format("SourceRegTargetPathFinder %s: source target pairs=%s, source reg pairs=%s, start depth=%d, max depth=%d, reg_coverage>=%f%s%s", 
+				this.name, this.stPairs.filename(), this.penultimateFilter.filename(), this.depth, this.maxDepth, this.stop,
+				this.prune ? ", prune" : "", this.signed ? ", signed" : "");
+	}
+	
+	/**
+	 * Coverage is measured against every candidate regulator and target 
+	 * with incoming edges in the graph, so shrinking the graph could change
+	 * when the deepening stops. Keep the whole graph.
+	 */
+	@Override
+	public Set<String> relevantNodes(Graph g) {
+		return null;
 	}
 
 	/**
@@ -76,117 +92,150 @@ public class SourceRegTargetPathFinder extends PairPathFinder {
 	 * So: if fraction=0.5, we need > 50% regulators included.
 	 * Prints summary at end of depth.
 	 */
-	public PathManager findPathsIterative(Graph g) {
+	public PathManager findPathsIterative(final Graph g) {
 		PathManager found = new PathManager();
-
+		this.findPathsIterative(g, found);
+		return found;
+	}
+	
+	/**
+	 * As findPathsIterative(g), but sends the paths to a sink, in source order.
+	 * With one thread, each source's paths go to the sink as soon as its
+	 * search is done.
+	 */
+	@Override
+	protected void findPathsIterative(final Graph g, final PathSink sink) {
 		// stop if depth==0
-		if (this.depth==0) return found;
+		if (this.depth==0) return;
 
 		// get the start nodes
-		Set<String> startNodes = stPairs.getFirsts();
+		ArrayList<String> startNodes = new ArrayList<String>(stPairs.getFirsts());
+		final boolean direct = this.threads <= 1;
 		// search for each start node
 
 		// for printing final summary
 		System.out.format("Source\tFinalDepth\tRegsUsed\tRegsTotal\tFracRegs\tTargetsUsed\tTargetsTotal\tFracTargets\n");
 
-		for (String node : startNodes) {
-			Set<String> targets = stPairs.getSeconds(node);
-			// targets in graph?
-			HashSet<String> totT = new HashSet<String>(g.nodes());
-			totT.retainAll(targets);
-			//System.out.format("%s has %d targets in graph \n", node, totT.size());
-
-			// candidate tfs/rbps
-			Set<String> cands = penultimateFilter.getSeconds(node);
-
-			HashSet<String> totR = new HashSet<String>();
-			// in graph?
-			for (String c : cands) {
-				int deg = g.degree(node, RType.INCOMING) + g.degree(node, RType.UNDIRECTED);
-				if (deg > 0) totR.add(c);
-			}
+		ArrayList<Callable<Pair<PathManager, Integer>>> tasks = 
+				new ArrayList<Callable<Pair<PathManager, Integer>>>();
+		for (final String node : startNodes) {
+			tasks.add(new Callable<Pair<PathManager, Integer>>() {
+				public Pair<PathManager, Integer> call() {
+					Pair<PathManager, Integer> res = deepen(g, node);
+					// one at a time: we're already in source order
+					if (!direct || res == null) return res;
+					handOver(g, node, res, sink);
+					return null;
+				}
+			});
+		}
+		List<Pair<PathManager, Integer>> results = this.runAll(tasks);
+
+		// summaries are printed here, in source order, rather than 
+		// by the (possibly parallel) searches
+		for (int k = 0; k < startNodes.size(); k++) {
+			Pair<PathManager, Integer> res = results.get(k);
+			// null if node not in graph (or already handed over)
+			if (res != null) this.handOver(g, startNodes.get(k), res, sink);
+		}
+	}
+	
+	/**
+	 * Prints a source's summary and sends its paths to the sink.
+	 */
+	protected void handOver(Graph g, String source, Pair<PathManager, Integer> res, PathSink sink) {
+		this.printSummary(g, res.first(), source, res.second());
+		res.first().copyTo(sink);
+	}
 
-			//System.out.format("%s has %d candidate TFs/RBPs in graph \n", node, totR.size());
+	/**
+	 * Iterative deepening from one source, until the regulator coverage
+	 * passes "stop" or we reach the maximum depth.
+	 * Each depth only extends the paths left over from the last one,
+	 * and coverage is updated from just the new paths.
+	 * @param g
+	 * @param node	source
+	 * @return	paths found at the final depth, and the final depth; 
+	 * 			null if the source isn't in the graph 
+	 */
+	protected Pair<PathManager, Integer> deepen(Graph g, String node) {
+		Set<String> targets = stPairs.getSeconds(node);
 
+		// candidate tfs/rbps
+		Set<String> cands = penultimateFilter.getSeconds(node);
 
-			if (!g.contains(node)) {				
-				if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
-				continue;		
-			}
+		HashSet<String> totR = new HashSet<String>();
+		// in graph?
+		if (hasIncoming(g, node)) totR.addAll(cands);
 
-			// iterative deepening loop
-			double cov=0.0;
-			int atDepth=this.depth;
+		//System.out.format("%s has %d candidate TFs/RBPs in graph \n", node, totR.size());
 
-			PathManager npaths=null;
-			while (cov <= this.stop && atDepth <= (this.maxDepth)) {
-				npaths = this.findPaths(g, node, atDepth);
 
-				if (DebugTools.DEBUG && npaths.size() > 0) {
-					System.out.println(String.format("Found %d paths for starting node %s at depth %d.", 
-							npaths.size(), node, atDepth));
-				}
-				// how many targets and TFs/RBPs covered? 
-
-				int tfound=0;
-				HashSet<String> foundT = new HashSet<String>();
-				for (String t : targets) {
-					if (npaths.contains(t)) {
-						tfound++;
-						foundT.add(t);
-					}
-				}	
-				HashSet<String> used = new HashSet<String>();
-				for (Path p : npaths.allPaths()) {
-					used.add(p.getNode(-2));
-				}
+		if (!g.contains(node)) {				
+			if (DebugTools.DEBUG) System.out.println("Node not in graph: " + node);
+			return null;		
+		}
 
+		// Possible TFs/RBPs/targets have incoming edges.
+		// The graph doesn't change during the search, so count them once.
+		int posR=countWithIncoming(g, totR), posT=countWithIncoming(g, targets);
 
-				atDepth++;		
+		// never searched?
+		if (this.depth > this.maxDepth) return null;
 
-				// Possible TFs/RBPs/targets have incoming edges
-				int posR=0, posT=0;
-				for (String r : totR) {
-					int deg = g.degree(r, RType.INCOMING) + g.degree(r, RType.UNDIRECTED);
-					if (deg > 0) {
-						posR++;
-					}
-				}
-				for (String t : targets) {
-					int deg = g.degree(t, RType.INCOMING) + g.degree(t, RType.UNDIRECTED);
-					if (deg > 0) {
-						posT++;
-					}
+		// distances don't depend on the search depth, so find them once
+		TargetDistances bound = this.targetDistances(g, node, this.maxDepth);
+
+		// iterative deepening loop
+		double cov=0.0;
+		Deepening search = new Deepening(g, node, this.maxDepth, bound);
+
+		// paths, targets and TFs/RBPs found so far, at any depth
+		PathManager npaths=new PathManager();
+		HashSet<String> foundT = new HashSet<String>();
+		HashSet<String> used = new HashSet<String>();
+		while (cov <= this.stop && search.depth() < this.maxDepth) {
+			PathManager layer = search.deepen();
+			npaths.addAll(layer);
+
+			// how many targets and TFs/RBPs covered? 
+			for (String t : targets) {
+				if (!foundT.contains(t) && layer.contains(t)) {
+					foundT.add(t);
 				}
+			}	
+			for (Path p : layer.allPaths()) {
+				used.add(p.getNode(-2));
+			}
 
-				cov= (posR > 0) ? ((double) used.size()) / posR : 0.0;
-				double tcov = (posT > 0) ? ((double) tfound) / posT : 0.0;
+			// don't stop before the starting depth
+			if (search.depth() < this.depth) continue;
 
-				//System.out.format("%s\tDepth %d. Covered %f (%d) of %d candidate TFs/RBPs; %f (%d) of %d targets.\n", 
-				//		node, (atDepth-1), cov, used.size(), posR, tcov, tfound, posT);
+			if (DebugTools.DEBUG && npaths.size() > 0) {
+				System.out.println(String.format("Found %d paths for starting node %s at depth %d.", 
+						npaths.size(), node, search.depth()));
+			}
 
-				//System.out.format("* For %s, covered %d/%d targets using %d/%d regulators.\n", 
-				//		node, tfound, posT, used.size(), posR);
+			int tfound=foundT.size();
+			cov= (posR > 0) ? ((double) used.size()) / posR : 0.0;
+			double tcov = (posT > 0) ? ((double) tfound) / posT : 0.0;
 
-				//				for (String s : used) {
-				//					System.out.format("\t%s\t%s\tregulator\t%d\n", node, s, (atDepth-1));
-				//				}
-				//				for (String t : foundT) {
-				//					System.out.format("\t%s\t%s\ttarget\t%d\n", node, t.replace("_RNA", "D"), (atDepth-1));
-				//				}
+			//System.out.format("%s\tDepth %d. Covered %f (%d) of %d candidate TFs/RBPs; %f (%d) of %d targets.\n", 
+			//		node, search.depth(), cov, used.size(), posR, tcov, tfound, posT);
 
-			}			
+			//System.out.format("* For %s, covered %d/%d targets using %d/%d regulators.\n", 
+			//		node, tfound, posT, used.size(), posR);
 
-			// npaths is null if node not in graph
-			if (npaths != null) {
-				found.addAll(npaths);
-				this.printSummary(g, npaths, node, atDepth-1);
-			} else {
+			//				for (String s : used) {
+			//					System.out.format("\t%s\t%s\tregulator\t%d\n", node, s, search.depth());
+			//				}
+			//				for (String t : foundT) {
+			//					System.out.format("\t%s\t%s\ttarget\t%d\n", node, t.replace("_RNA", "D"), search.depth());
+			//				}
 
-			}
 		}
 
-		return found;
+		return new Pair<PathManager, Integer>(npaths, search.depth());
 	}
 
 	/**
@@ -218,19 +267,7 @@ public class SourceRegTargetPathFinder extends PairPathFinder {
 		} 
 
 		// Possible TFs/RBPs from original filter (may not have incoming edges in background network)			
-		int posR=0, posT=0;
-		for (String r : totR) {
-			int deg = g.degree(r, RType.INCOMING) + g.degree(r, RType.UNDIRECTED);
-			if (deg > 0) {
-				posR++;
-			}
-		}
-		for (String t : targets) {
-			int deg = g.degree(t, RType.INCOMING) + g.degree(t, RType.UNDIRECTED);
-			if (deg > 0) {
-				posT++;
-			}
-		}
+		int posR=countWithIncoming(g, totR), posT=countWithIncoming(g, targets);
 
 		double cov= (posR > 0) ? ((double) used.size()) / posR : 0.0;
 		double tcov = (posT > 0) ? ((double) tfound) / posT : 0.0;
@@ -241,29 +278,33 @@ public class SourceRegTargetPathFinder extends PairPathFinder {
 	}
 
 	/**
-	 * If multiple sources appear in a path, then the set of targets at the end will
-	 * be the intersection of all of those sources' targets.
+	 * Does the node have any incoming (or undirected) edges in the graph?
 	 */
-	@Override
-	protected PathManager applyPostProcessing(PathManager found) {
-		PathManager newPM=new PathManager();
-		for (String label : found.allLabels()) {
-			for (Path p : found.getPathsForLabel(label)) {
-				Path newPath = this.postProcessPath(p);
-				if (newPath != null) {
-					newPM.add(newPath, label);
-				}
-			}
+	protected static boolean hasIncoming(Graph g, String node) {
+		return g.degree(node, RType.INCOMING) + g.degree(node, RType.UNDIRECTED) > 0;
+	}
+
+	/**
+	 * Counts the nodes that have incoming (or undirected) edges in the graph.
+	 */
+	protected static int countWithIncoming(Graph g, Set<String> nodes) {
+		int count=0;
+		for (String n : nodes) {
+			if (hasIncoming(g, n)) count++;
 		}
-		return newPM;
+		return count;
 	}
 
 	/**
+	 * If multiple sources appear in a path, then the set of targets at the end will
+	 * be the intersection of all of those sources' targets.
+	 * 
 	 * Given a path, checks for other sources along the way.
 	 * If sources exist, restrict the target set to the intersection.
 	 * @param p restricted path, or null if no targets remain.
 	 * @return
 	 */
+	@Override
 	protected Path postProcessPath(Path p) {
 		// does it contain other sources? If not, just return the original path
 		Set<String> sources=this.stPairs.getFirsts();
@@ -363,6 +404,9 @@ public class SourceRegTargetPathFinder extends PairPathFinder {
 	 * regulator coverage is >= 0.50.
 	 * PATHFINDER	name	SourceRegTargetPairPathFinder	sourceTarget	sourceReg	3	5	0.5
 	 * 
+	 * Either form can end with PRUNE for target-distance pruning,
+	 * and/or SIGNED to keep only paths whose sign matches their pair's.
+	 * 
 	 * @param line
 	 * @param config
 	 * @return
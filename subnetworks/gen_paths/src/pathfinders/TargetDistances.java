@@ -0,0 +1,87 @@
+package pathfinders;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import structures.Graph;
+import structures.Path;
+import utilities.GraphUtils;
+
+/**
+ * Distances (in edges) from nodes to the nearest of a set of targets,
+ * following edges the way the search does (outgoing and undirected),
+ * found with a reverse breadth-first search from the targets.
+ *
+ * Used to prune a pair search: if a node can't reach any of the source's
+ * targets in the depth we have left, no path through it will be saved,
+ * so there's no point extending paths past it. The distances ignore
+ * the no-cycles rule, so they never overestimate.
+ *
+ * Read-only once built.
+ */
+public class TargetDistances {
+
+	/*
+	 * Node -> distance to nearest target. Nodes farther than the bound
+	 * (or that can't reach a target at all) are left out.
+	 */
+	private final HashMap<String, Integer> dist;
+	private final int bound;
+
+	/**
+	 * Runs the reverse search from the targets, out to the given bound.
+	 * @param g	the search graph
+	 * @param targets	targets (those not in the graph are ignored)
+	 * @param bound	largest distance we care about (e.g. maximum search depth)
+	 */
+	public TargetDistances(Graph g, Collection<String> targets, int bound) {
+		this(GraphUtils.distances(g, targets, PathFinder.BACKWARD, bound), bound);
+	}
+
+	/**
+	 * Distances a subclass has already found.
+	 * @param dist	node -> distance to the nearest target, within the bound
+	 * @param bound
+	 */
+	protected TargetDistances(HashMap<String, Integer> dist, int bound) {
+		this.dist = dist;
+		this.bound = bound;
+	}
+
+	/**
+	 * Can a target be reached from this node in at most depth edges?
+	 * (Always true past the bound, since we don't know.)
+	 * @param node
+	 * @param depth
+	 * @return
+	 */
+	public boolean reachable(String node, int depth) {
+		if (depth > this.bound) return true;
+		Integer d = this.dist.get(node);
+		return d != null && d <= depth;
+	}
+
+	/**
+	 * Can the path still reach a target in at most depth more edges?
+	 * Here, just whether its last node can; subclasses can look at more
+	 * of the path.
+	 * @param p
+	 * @param depth
+	 * @return
+	 */
+	public boolean reachable(Path p, int depth) {
+		return this.reachable(p.getNode(-1), depth);
+	}
+
+	/**
+	 * Distance from the node to the nearest target, or -1 if
+	 * it's farther than the bound.
+	 * @param node
+	 * @return
+	 */
+	public int distance(String node) {
+		Integer d = this.dist.get(node);
+		return d == null ? -1 : d;
+	}
+
+}
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Set;
 
 import utilities.StringUtils;
+import utilities.Enums.Sign;
 
 /**
  * A branchy path can have multiple termini.
@@ -34,8 +35,8 @@ public class BranchyPath extends Path {
 	public BranchyPath(Path body,
 			Set<String> termini, Set<Edge> termEdges) {
 		this();
-		this.nodes.addAll(body.nodes);
-		this.edges.addAll(body.edges);
+		this.nodes.addAll(body.nodeList());
+		this.edges.addAll(body.edgeList());
 		this.termini.addAll(termini);
 		this.terminalEdges.addAll(termEdges);
 		this.toString = this.buildString();
@@ -135,6 +136,32 @@ public class BranchyPath extends Path {
 		return Collections.unmodifiableSet(this.termini);
 	}
 	
+	/**
+	 * The body's sign times the terminal edges' sign,
+	 * if they all have the same one; otherwise UNKNOWN.
+	 */
+	@Override
+	public Sign sign() {
+		if (this.mixedSigns()) return Sign.UNKNOWN;
+		if (this.terminalEdges.isEmpty()) return super.sign();
+		Sign last = this.terminalEdges.iterator().next().sign();
+		return Sign.fromValue(super.sign().value() * last.value());
+	}
+	
+	/**
+	 * Do the terminal edges have different signs?
+	 * (Then the branches do too, and the path as a whole has none.)
+	 * @return
+	 */
+	public boolean mixedSigns() {
+		Sign last = null;
+		for (Edge e : this.terminalEdges) {
+			if (last == null) last = e.sign();
+			else if (last != e.sign()) return true;
+		}
+		return false;
+	}
+	
 	/**
 	 * Returns a copy of this path.
 	 * @return
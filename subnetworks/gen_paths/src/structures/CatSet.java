@@ -2,9 +2,9 @@ package structures;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import utilities.StringUtils;
 
@@ -20,7 +20,7 @@ public class CatSet extends Value {
 	// treeset keeps it sorted
 	private TreeSet<Discrete> vals;
 	
-	private static HashMap<String, CatSet> created = new HashMap<String, CatSet>();
+	private static ConcurrentHashMap<String, CatSet> created = new ConcurrentHashMap<String, CatSet>();
 	
 	private CatSet(Collection<Discrete> vals) {
 		this.vals=new TreeSet<Discrete>();
@@ -48,9 +48,7 @@ public class CatSet extends Value {
 	public static CatSet makeValue(Collection<Discrete> vals) {
 		CatSet cat = new CatSet(vals);
 		String catstr = cat.toString();
-		if (!created.containsKey(catstr)) {
-			created.put(catstr, cat);
-		} 
+		created.putIfAbsent(catstr, cat);
 		return created.get(catstr);
 	}
 	
@@ -0,0 +1,578 @@
+package structures;
+
+import java.nio.IntBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of a Graph in compressed sparse row (CSR) form.
+ *
+ * Each node gets a dense integer ID (in sorted name order). For each
+ * relationship type (incoming, outgoing, undirected), the incident edges of
+ * node u live in one flat array between offsets[u] and offsets[u+1], along
+ * with the ID of the node at the other end of each edge.
+ *
+ * Build one of these after the background network has been filtered
+ * and hand it to the PathFinders: it answers the same queries as Graph,
+ * but the search can walk the flat arrays directly instead of copying
+ * incident edge sets out of nested hash maps at every step.
+ *
+ * The rows are kept in IntBuffers, so that a graph read from a
+ * NetworkSnapshot can use the snapshot's memory-mapped file in place.
+ * nodes() and edges() list the nodes and edges in the order that
+ * the original graph did.
+ *
+ * Any attempt to modify a CompactGraph throws an UnsupportedOperationException.
+ */
+public class CompactGraph extends Graph implements EdgeSlots {
+
+	/*
+	 * Node ID -> node name
+	 */
+	protected final String[] names;
+
+	/*
+	 * Node name -> node ID
+	 */
+	protected final HashMap<String, Integer> ids;
+
+	/*
+	 * Node IDs in the original graph's node order
+	 */
+	protected final IntBuffer order;
+
+	/*
+	 * The edges, in the original graph's edge order. The rows
+	 * refer to edges by their index here.
+	 */
+	protected final Edge[] edgeTable;
+
+	/*
+	 * Per relationship type (indexed by RType.ordinal()):
+	 * offsets[type][u] .. offsets[type][u+1] delimit u's incident edges
+	 * in rows[type], and targets[type] holds the ID of the other node.
+	 * (For self-loops, the other node is u itself.)
+	 */
+	protected final IntBuffer[] offsets;
+	protected final IntBuffer[] targets;
+	protected final IntBuffer[] rows;
+
+	/*
+	 * degrees[type][u] is u's number of distinct neighbors of that type,
+	 * and degrees[TOTAL][u] its number of distinct neighbors other than itself.
+	 */
+	static final int TOTAL = RType.values().length;
+	protected final IntBuffer[] degrees;
+
+	/**
+	 * Makes a compact, read-only copy of the given graph.
+	 * @param g
+	 */
+	public CompactGraph(Graph g) {
+		super();
+
+		ArrayList<String> sorted = new ArrayList<String>(g.nodes());
+		Collections.sort(sorted);
+
+		int n = sorted.size();
+		this.names = sorted.toArray(new String[n]);
+		this.ids = index(this.names);
+
+		int[] order = new int[n];
+		int o = 0;
+		for (String a : g.nodes()) {
+			order[o++] = this.ids.get(a);
+		}
+		this.order = IntBuffer.wrap(order);
+
+		this.edgeTable = g.edges().toArray(new Edge[g.edgeCount()]);
+		HashMap<Edge, Integer> edgeIds = new HashMap<Edge, Integer>();
+		for (int k = 0; k < this.edgeTable.length; k++) {
+			edgeIds.put(this.edgeTable[k], k);
+		}
+
+		RType[] types = RType.values();
+		this.offsets = new IntBuffer[types.length];
+		this.targets = new IntBuffer[types.length];
+		this.rows = new IntBuffer[types.length];
+		this.degrees = new IntBuffer[types.length+1];
+
+		for (RType type : types) {
+			int t = type.ordinal();
+
+			// first pass: collect each node's edges, sorted by the ID of the
+			// other node (then by edge) so that the layout doesn't depend on
+			// hash order and parallel edges sit next to each other
+			Edge[][] perNode = new Edge[n][];
+			int total = 0;
+			for (int u = 0; u < n; u++) {
+				final String a = this.names[u];
+				final RType ty = type;
+				Set<Edge> inc = g.incident(a, type);
+				Edge[] arr = inc == null ? new Edge[0] : inc.toArray(new Edge[inc.size()]);
+				Arrays.sort(arr, new Comparator<Edge>() {
+					public int compare(Edge e1, Edge e2) {
+						int c = other(e1, a, ty).compareTo(other(e2, a, ty));
+						return c != 0 ? c : e1.compareTo(e2);
+					}
+				});
+				perNode[u] = arr;
+				total += arr.length;
+			}
+
+			// second pass: lay out the rows
+			int[] off = new int[n+1];
+			int[] tar = new int[total];
+			int[] row = new int[total];
+			int k = 0;
+			for (int u = 0; u < n; u++) {
+				off[u] = k;
+				for (Edge e : perNode[u]) {
+					row[k] = edgeIds.get(e);
+					tar[k] = this.ids.get(other(e, this.names[u], type));
+					k++;
+				}
+			}
+			off[n] = k;
+
+			this.offsets[t] = IntBuffer.wrap(off);
+			this.targets[t] = IntBuffer.wrap(tar);
+			this.rows[t] = IntBuffer.wrap(row);
+
+			int[] deg = new int[n];
+			for (int u = 0; u < n; u++) {
+				deg[u] = this.distinct(type, u);
+			}
+			this.degrees[t] = IntBuffer.wrap(deg);
+		}
+		int[] deg = new int[n];
+		for (int u = 0; u < n; u++) {
+			deg[u] = this.countNeighbors(u);
+		}
+		this.degrees[TOTAL] = IntBuffer.wrap(deg);
+		this.freeze();
+	}
+
+	/**
+	 * Puts together a graph from rows that were already laid out
+	 * (see NetworkSnapshot), e.g. in a memory-mapped file.
+	 * @param names	node names, sorted
+	 * @param order	node IDs in the original node order
+	 * @param edgeTable	edges in the original edge order
+	 * @param offsets	per type, n+1 row offsets
+	 * @param targets	per type, the other node of each row entry
+	 * @param rows	per type, the edgeTable index of each row entry
+	 * @param degrees	per type (and TOTAL), n degrees
+	 */
+	CompactGraph(String[] names, IntBuffer order, Edge[] edgeTable,
+			IntBuffer[] offsets, IntBuffer[] targets, IntBuffer[] rows, IntBuffer[] degrees) {
+		super();
+		this.names = names;
+		this.ids = index(names);
+		this.order = order;
+		this.edgeTable = edgeTable;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.rows = rows;
+		this.degrees = degrees;
+		this.freeze();
+	}
+
+	/**
+	 * Maps each name to its position.
+	 */
+	private static HashMap<String, Integer> index(String[] names) {
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (int u = 0; u < names.length; u++) {
+			ids.put(names[u], u);
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets the node at the other end of an edge, from the perspective
+	 * of node a in the given relationship.
+	 */
+	private static String other(Edge e, String a, RType type) {
+		switch (type) {
+		case OUTGOING: return e.j();
+		case INCOMING: return e.i();
+		default: return e.i().equals(a) ? e.j() : e.i();
+		}
+	}
+
+	/**
+	 * Gets the dense ID of a node.
+	 * @param node
+	 * @return	the ID, or -1 if the node isn't in the graph
+	 */
+	public int id(String node) {
+		Integer id = this.ids.get(node);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the name of the node with the given ID.
+	 * @param id
+	 * @return
+	 */
+	public String name(int id) {
+		return this.names[id];
+	}
+
+	/**
+	 * Number of nodes (and so, one past the largest node ID).
+	 * @return
+	 */
+	public int size() {
+		return this.names.length;
+	}
+
+	/**
+	 * Index of the first edge of the given type incident to node u.
+	 * @param type
+	 * @param u	node ID
+	 * @return
+	 */
+	public int first(RType type, int u) {
+		return this.offsets[type.ordinal()].get(u);
+	}
+
+	/**
+	 * One past the index of the last edge of the given type incident to node u.
+	 * @param type
+	 * @param u	node ID
+	 * @return
+	 */
+	public int end(RType type, int u) {
+		return this.offsets[type.ordinal()].get(u+1);
+	}
+
+	/**
+	 * Gets the edge stored at index k for the given type.
+	 * @param type
+	 * @param k	index between first(type,u) and end(type,u)
+	 * @return
+	 */
+	public Edge edge(RType type, int k) {
+		return this.edgeTable[this.rows[type.ordinal()].get(k)];
+	}
+
+	/**
+	 * Gets the ID of the node at the other end of the edge stored at index k.
+	 * @param type
+	 * @param k
+	 * @return
+	 */
+	public int target(RType type, int k) {
+		return this.targets[type.ordinal()].get(k);
+	}
+
+	public int edgeSlots() {
+		return this.rowLength(RType.OUTGOING) + this.rowLength(RType.UNDIRECTED);
+	}
+
+	/**
+	 * Total number of row entries of the given type.
+	 */
+	private int rowLength(RType type) {
+		return this.offsets[type.ordinal()].get(this.names.length);
+	}
+
+	/**
+	 * Finds the edge in its first node's row: rows are sorted by
+	 * the other node's ID, so we search for that and then check
+	 * the parallel edges.
+	 */
+	public int slot(Edge e) {
+		int u = this.id(e.i()), v = this.id(e.j());
+		if (u < 0 || v < 0) return -1;
+		RType type = e.isDirected() ? RType.OUTGOING : RType.UNDIRECTED;
+		IntBuffer tar = this.targets[type.ordinal()];
+		int lo = first(type, u), hi = end(type, u), end = hi;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (tar.get(mid) < v) lo = mid+1;
+			else hi = mid;
+		}
+		for (int k = lo; k < end && tar.get(k) == v; k++) {
+			if (edge(type, k).equals(e)) {
+				return e.isDirected() ? k : this.rowLength(RType.OUTGOING) + k;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public Set<String> nodes() {
+		return new AbstractSet<String>() {
+			public int size() {
+				return names.length;
+			}
+			public boolean contains(Object o) {
+				return ids.containsKey(o);
+			}
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					int k = 0;
+					public boolean hasNext() {
+						return k < names.length;
+					}
+					public String next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						return names[order.get(k++)];
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Set<Edge> edges() {
+		return new AbstractSet<Edge>() {
+			public int size() {
+				return edgeTable.length;
+			}
+			public boolean contains(Object o) {
+				return o instanceof Edge && CompactGraph.this.contains((Edge) o);
+			}
+			public Iterator<Edge> iterator() {
+				// (Arrays.asList's iterator can't remove)
+				return Arrays.asList(edgeTable).iterator();
+			}
+		};
+	}
+
+	@Override
+	public boolean contains(Edge e) {
+		return this.slot(e) >= 0;
+	}
+
+	@Override
+	public int edgeCount() {
+		return this.edgeTable.length;
+	}
+
+	@Override
+	public boolean contains(String node) {
+		return this.ids.containsKey(node);
+	}
+
+	@Override
+	public int nodeCount() {
+		return this.names.length;
+	}
+
+	@Override
+	public int degree(String node) {
+		int u = this.id(node);
+		return u < 0 ? 0 : this.degrees[TOTAL].get(u);
+	}
+
+	@Override
+	public int degree(String node, RType type) {
+		int u = this.id(node);
+		return u < 0 ? 0 : this.degrees[type.ordinal()].get(u);
+	}
+
+	/**
+	 * Counts u's distinct neighbors other than itself, for the degree index.
+	 */
+	private int countNeighbors(int u) {
+		// each row is sorted by neighbor ID: merge the three rows,
+		// counting each neighbor other than u once.
+		int[] pos = new int[3];
+		int count = 0, prev = -1;
+		RType[] types = RType.values();
+		for (int t = 0; t < 3; t++) pos[t] = first(types[t], u);
+		while (true) {
+			int best = -1, bestT = -1;
+			for (int t = 0; t < 3; t++) {
+				if (pos[t] < end(types[t], u)) {
+					int v = target(types[t], pos[t]);
+					if (best < 0 || v < best) { best = v; bestT = t; }
+				}
+			}
+			if (bestT < 0) break;
+			pos[bestT]++;
+			if (best != prev && best != u) count++;
+			prev = best;
+		}
+		return count;
+	}
+
+	/**
+	 * Counts distinct neighbors in u's row for a type. 
+	 */
+	private int distinct(RType type, int u) {
+		int count = 0, prev = -1;
+		for (int k = first(type, u); k < end(type, u); k++) {
+			int v = target(type, k);
+			if (v != prev) count++;
+			prev = v;
+		}
+		return count;
+	}
+
+	@Override
+	public Set<Edge> adjacent(String a, String b) {
+		HashSet<Edge> found = new HashSet<Edge>();
+		int u = this.id(a), v = this.id(b);
+		if (u >= 0 && v >= 0) {
+			for (RType type : RType.values()) {
+				for (int k = first(type, u); k < end(type, u); k++) {
+					if (target(type, k) == v) found.add(edge(type, k));
+				}
+			}
+		}
+		return Collections.unmodifiableSet(found);
+	}
+
+	@Override
+	public Set<String> neighbors(String a) {
+		HashSet<String> neighbors = new HashSet<String>();
+		int u = this.id(a);
+		if (u < 0) return neighbors;
+		for (RType type : RType.values()) {
+			for (int k = first(type, u); k < end(type, u); k++) {
+				int v = target(type, k);
+				if (v != u) neighbors.add(this.names[v]);
+			}
+		}
+		return neighbors;
+	}
+
+	@Override
+	public Set<String> neighbors(String a, RType type) {
+		int u = this.id(a);
+		if (u < 0) return null;
+		HashSet<String> neighbors = new HashSet<String>();
+		for (int k = first(type, u); k < end(type, u); k++) {
+			neighbors.add(this.names[target(type, k)]);
+		}
+		return neighbors;
+	}
+
+	@Override
+	public Collection<String> neighborView(String a, RType type) {
+		final int u = this.id(a);
+		if (u < 0) return Collections.emptySet();
+		final IntBuffer off = this.offsets[type.ordinal()], tar = this.targets[type.ordinal()];
+		final int size = this.degrees[type.ordinal()].get(u);
+		return new AbstractCollection<String>() {
+			public int size() {
+				return size;
+			}
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					int k = off.get(u), to = off.get(u+1);
+					public boolean hasNext() {
+						return k < to;
+					}
+					public String next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						int v = tar.get(k);
+						// skip parallel edges to the same neighbor
+						while (k < to && tar.get(k) == v) k++;
+						return names[v];
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Edge> incidentView(String a, RType type) {
+		int u = this.id(a);
+		if (u < 0) return Collections.emptySet();
+		final IntBuffer row = this.rows[type.ordinal()];
+		final int from = first(type, u), to = end(type, u);
+		return new Iterable<Edge>() {
+			public Iterator<Edge> iterator() {
+				return new Iterator<Edge>() {
+					int k = from;
+					public boolean hasNext() {
+						return k < to;
+					}
+					public Edge next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						return edgeTable[row.get(k++)];
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Set<Edge> incident(String a, RType type) {
+		int u = this.id(a);
+		if (u < 0) return null;
+		HashSet<Edge> incident = new HashSet<Edge>();
+		for (int k = first(type, u); k < end(type, u); k++) {
+			incident.add(edge(type, k));
+		}
+		return incident;
+	}
+
+	@Override
+	public Set<Edge> incident(String a) {
+		HashSet<Edge> incident = new HashSet<Edge>();
+		int u = this.id(a);
+		if (u < 0) return incident;
+		for (RType type : RType.values()) {
+			for (int k = first(type, u); k < end(type, u); k++) {
+				incident.add(edge(type, k));
+			}
+		}
+		return incident;
+	}
+
+	@Override
+	public boolean add(Edge edge) {
+		throw new UnsupportedOperationException("CompactGraph is read-only.");
+	}
+
+	@Override
+	public boolean add(String n) {
+		throw new UnsupportedOperationException("CompactGraph is read-only.");
+	}
+
+	@Override
+	public Set<Edge> remove(String a) {
+		throw new UnsupportedOperationException("CompactGraph is read-only.");
+	}
+
+	@Override
+	public Edge remove(Edge e) {
+		throw new UnsupportedOperationException("CompactGraph is read-only.");
+	}
+
+	@Override
+	protected HashMap<RType, HashMap<String, HashSet<Edge>>> get(String a) {
+		throw new UnsupportedOperationException("CompactGraph has no incidence map.");
+	}
+
+	@Override
+	protected HashMap<String, HashSet<Edge>> get(String a, RType type) {
+		throw new UnsupportedOperationException("CompactGraph has no incidence map.");
+	}
+}
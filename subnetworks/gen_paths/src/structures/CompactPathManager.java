@@ -0,0 +1,664 @@
+package structures;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A PathManager for very many paths. Instead of keeping each Path
+ * (with its node and edge lists, termini and string) in hash sets, it keeps:
+ * - each path as a run of int node and edge IDs in one shared array (the arena),
+ * - each path's labels as bits in a mask, and
+ * - for each node, the sorted IDs of the paths through it (its postings list).
+ *
+ * Paths get IDs in the order they're added. Like a PathManager, it only keeps
+ * one of a set of equal paths (see Path.equals): they're found with a hash
+ * table of path IDs that compares against the arena.
+ *
+ * The query methods work as they do in a PathManager, but the sets they return
+ * are read-only views that build each Path as it's iterated, so look paths up
+ * in them (contains) rather than holding on to them. The paths that come out
+ * are equal to the ones that went in, but not the same objects.
+ * The views iterate in the same order as a PathManager's hash sets would
+ * (we keep each path's hash code for that), so whatever reads the paths
+ * (and numbers them, like the GamsPrinter) sees them in the same order either way.
+ *
+ * What it saves depends on the rest of the run holding no Paths either.
+ * The pathfinders send their paths straight here (findPaths with a sink);
+ * per-start-node searches on more than one thread, and a batch search,
+ * keep the paths they're holding back in CompactPathManagers too.
+ * The GamsPrinter reads paths through the views, but still builds
+ * the strings for its GAMS path sets in memory.
+ *
+ * Not thread-safe, like the PathManager.
+ */
+public class CompactPathManager extends PathManager {
+
+	/*
+	 * Node and edge IDs.
+	 */
+	protected final HashMap<String, Integer> nodeIds = new HashMap<String, Integer>();
+	protected final ArrayList<String> nodes = new ArrayList<String>();
+	protected final HashMap<Edge, Integer> edgeIds = new HashMap<Edge, Integer>();
+	protected final ArrayList<Edge> edges = new ArrayList<Edge>();
+
+	/*
+	 * The arena. Path i starts at offsets[i]:
+	 * linear path: n, then n node IDs, n-1 edge IDs
+	 * branchy path: -n, t, u, then n node IDs, n-1 edge IDs,
+	 * 		t terminal edge IDs, u termini (sorted)
+	 */
+	protected int[] arena = new int[1024];
+	protected int arenaSize = 0;
+	protected int[] offsets = new int[64];
+	protected int[] hashes = new int[64];
+	protected int count = 0;
+
+	/*
+	 * Hash table: path ID + 1 in each slot, 0 if empty.
+	 * Size is a power of 2, kept at most half full.
+	 */
+	protected int[] table = new int[128];
+
+	/*
+	 * Label IDs, and the number of paths with each label.
+	 */
+	protected final HashMap<String, Integer> labelIds = new HashMap<String, Integer>();
+	protected final ArrayList<String> labelNames = new ArrayList<String>();
+	protected int[] labelCounts = new int[64];
+
+	/*
+	 * Each path's hashCode (see Path.hashCode), and each label's path IDs
+	 * in the order they got the label: what a PathManager's hash sets
+	 * go by when they're iterated.
+	 */
+	protected int[] pathHashes = new int[64];
+	protected int[][] labelPaths = new int[64][];
+
+	/*
+	 * Path IDs in the order of allPaths(), and each path's place in it;
+	 * kept until more paths are added.
+	 */
+	private int[] allOrder, ranks;
+
+	/*
+	 * Label bits: words longs per path, path i's at masks[i*words].
+	 */
+	protected int words = 1;
+	protected long[] masks = new long[64];
+
+	/*
+	 * Node ID -> sorted IDs of the paths through it.
+	 */
+	protected int[][] postings = new int[64][];
+	protected int[] postingSizes = new int[64];
+
+	/**
+	 * Constructs an empty CompactPathManager.
+	 */
+	public CompactPathManager() {
+		super();
+	}
+
+	/**
+	 * Constructs a CompactPathManager with a set of paths and a label for those paths.
+	 * @param paths
+	 * @param label
+	 */
+	public CompactPathManager(Collection<Path> paths, String label) {
+		this();
+		this.addAll(paths, label);
+	}
+
+	/**
+	 * Adds a path (with label!).
+	 * @param p
+	 */
+	@Override
+	public void add(Path p, String label) {
+		Key k = new Key(p, true);
+		int id = this.find(k);
+		if (id < 0) {
+			id = this.store(k);
+			this.pathHashes[id] = p.hashCode();
+		}
+
+		int l = this.labelId(label);
+		int w = id * this.words + (l >>> 6);
+		long bit = 1L << (l & 63);
+		if ((this.masks[w] & bit) == 0) {
+			this.masks[w] |= bit;
+			int[] list = this.labelPaths[l];
+			int size = this.labelCounts[l];
+			if (list == null) {
+				list = new int[4];
+			} else if (size == list.length) {
+				list = Arrays.copyOf(list, size * 2);
+			}
+			list[size] = id;
+			this.labelPaths[l] = list;
+			this.labelCounts[l] = size + 1;
+		}
+	}
+
+	@Override
+	public Set<Path> allPaths() {
+		return new PathView(PathView.ALL, -1);
+	}
+
+	@Override
+	public int size() {
+		return this.count;
+	}
+
+	@Override
+	public int nodeCount() {
+		return this.nodes.size();
+	}
+
+	@Override
+	public boolean contains(String node) {
+		return this.nodeIds.containsKey(node);
+	}
+
+	@Override
+	public boolean contains(Path p) {
+		return this.idOf(p) >= 0;
+	}
+
+	@Override
+	public Set<Path> getPaths(String node) {
+		Integer n = this.nodeIds.get(node);
+		if (n == null) return null;
+		return new PathView(PathView.NODE, n);
+	}
+
+	@Override
+	public Set<Path> getPathsForLabel(String label) {
+		Integer l = this.labelIds.get(label);
+		if (l == null) return null;
+		return new PathView(PathView.LABEL, l);
+	}
+
+	@Override
+	public Set<String> getLabels(Path p) {
+		int id = this.idOf(p);
+		if (id < 0) return null;
+		HashSet<String> labels = new HashSet<String>();
+		for (int l = 0; l < this.labelNames.size(); l++) {
+			if (this.hasLabel(id, l)) labels.add(this.labelNames.get(l));
+		}
+		return labels;
+	}
+
+	@Override
+	public Set<String> allLabels() {
+		return Collections.unmodifiableSet(this.labelIds.keySet());
+	}
+
+	/**
+	 * The place of a path equal to p in allPaths(), or -1 if we don't have one,
+	 * so printers can number paths without a map of their own.
+	 * @param p
+	 * @return
+	 */
+	public int indexOf(Path p) {
+		int id = this.idOf(p);
+		if (id < 0) return -1;
+		this.allOrder();
+		return this.ranks[id];
+	}
+
+	/**
+	 * The ID of a path equal to p, or -1 if we don't have one.
+	 * IDs count up from 0 in the order paths were added.
+	 * @param p
+	 * @return
+	 */
+	protected int idOf(Path p) {
+		Key k = new Key(p, false);
+		return k.nodeIds == null ? -1 : this.find(k);
+	}
+
+	protected boolean hasLabel(int id, int l) {
+		return (this.masks[id * this.words + (l >>> 6)] & (1L << (l & 63))) != 0;
+	}
+
+	/**
+	 * All path IDs in the order of allPaths().
+	 */
+	protected int[] allOrder() {
+		if (this.allOrder == null || this.allOrder.length != this.count) {
+			int[] ids = new int[this.count];
+			for (int id = 0; id < this.count; id++) {
+				ids[id] = id;
+			}
+			this.allOrder = this.hashOrder(ids, this.count);
+			this.ranks = new int[this.count];
+			for (int i = 0; i < this.count; i++) {
+				this.ranks[this.allOrder[i]] = i;
+			}
+		}
+		return this.allOrder;
+	}
+
+	/**
+	 * The order a HashSet iterates these paths in, if they're added to it in
+	 * the order given (as a PathManager adds them): by bucket in the table it
+	 * ends up with, and within a bucket, in the order added.
+	 * @param ids	path IDs, in the order added
+	 * @param n	how many
+	 * @return	the IDs in iteration order
+	 */
+	protected int[] hashOrder(int[] ids, int n) {
+		int cap = 16;
+		while (n > cap / 4 * 3) cap *= 2;
+		// a bucket that ever held more than 8 paths was made into a tree
+		// (or made the table grow early); then we just ask a HashSet.
+		// (Only for paths with colliding strings. A tree's order depends on
+		// the objects' identity hashes, so then it may not match after all.)
+		for (int c = 16; c <= cap; c *= 2) {
+			int[] chains = new int[c];
+			int m = Math.min(n, c / 4 * 3 + 1);
+			for (int i = 0; i < m; i++) {
+				if (++chains[bucket(this.pathHashes[ids[i]], c)] > 8) return this.replay(ids, n);
+			}
+		}
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = ((long) bucket(this.pathHashes[ids[i]], cap) << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = ids[(int) keys[i]];
+		}
+		return order;
+	}
+
+	/**
+	 * hashOrder the slow way: puts the paths in a HashSet.
+	 */
+	private int[] replay(int[] ids, int n) {
+		HashSet<Path> set = new HashSet<Path>();
+		for (int i = 0; i < n; i++) {
+			set.add(this.path(ids[i]));
+		}
+		int[] order = new int[n];
+		int i = 0;
+		for (Path p : set) {
+			order[i++] = this.idOf(p);
+		}
+		return order;
+	}
+
+	/**
+	 * A hash code's bucket in a HashMap table of that size.
+	 */
+	private static int bucket(int h, int size) {
+		return (h ^ (h >>> 16)) & (size - 1);
+	}
+
+	/**
+	 * Builds path i from the arena.
+	 * @param id
+	 * @return
+	 */
+	protected Path path(int id) {
+		int o = this.offsets[id];
+		boolean branchy = this.arena[o] < 0;
+		int n = Math.abs(this.arena[o]);
+		int at = o + (branchy ? 3 : 1);
+
+		ArrayList<String> pnodes = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++) {
+			pnodes.add(this.nodes.get(this.arena[at++]));
+		}
+		ArrayList<Edge> pedges = new ArrayList<Edge>(Math.max(n-1, 0));
+		for (int i = 0; i < n-1; i++) {
+			pedges.add(this.edges.get(this.arena[at++]));
+		}
+		Path body = new Path(pnodes, pedges);
+		if (!branchy) return body;
+
+		int t = this.arena[o+1], u = this.arena[o+2];
+		HashSet<Edge> termEdges = new HashSet<Edge>();
+		for (int i = 0; i < t; i++) {
+			termEdges.add(this.edges.get(this.arena[at++]));
+		}
+		HashSet<String> termini = new HashSet<String>();
+		for (int i = 0; i < u; i++) {
+			termini.add(this.nodes.get(this.arena[at++]));
+		}
+		return new BranchyPath(body, termini, termEdges);
+	}
+
+	/**
+	 * The ID of the stored path that matches the key, or -1.
+	 */
+	protected int find(Key k) {
+		int mask = this.table.length - 1;
+		for (int slot = spread(k.hash) & mask; this.table[slot] != 0; slot = (slot+1) & mask) {
+			int id = this.table[slot] - 1;
+			if (this.hashes[id] == k.hash && this.matches(id, k)) return id;
+		}
+		return -1;
+	}
+
+	/**
+	 * Does stored path i equal the key's path? Same test as Path.equals:
+	 * the same nodes, edges with the same direction and sign, and
+	 * (for a branchy path) the same termini.
+	 */
+	protected boolean matches(int id, Key k) {
+		int o = this.offsets[id];
+		boolean branchy = this.arena[o] < 0;
+		if (branchy != (k.termini != null)) return false;
+		int n = Math.abs(this.arena[o]);
+		if (n != k.nodeIds.length) return false;
+
+		int at = o + (branchy ? 3 : 1);
+		for (int i = 0; i < n; i++) {
+			if (this.arena[at++] != k.nodeIds[i]) return false;
+		}
+		for (int i = 0; i < n-1; i++) {
+			if (kind(this.edges.get(this.arena[at++])) != kind(k.bodyEdges[i])) return false;
+		}
+		if (!branchy) return true;
+
+		int t = this.arena[o+1], u = this.arena[o+2];
+		if (u != k.termini.length) return false;
+		at += t;
+		for (int i = 0; i < u; i++) {
+			if (this.arena[at++] != k.termini[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a new path to the arena, the hash table and the postings lists.
+	 * @return	its ID
+	 */
+	protected int store(Key k) {
+		boolean branchy = k.termini != null;
+		int n = k.nodeIds.length;
+		int len = (branchy ? 3 : 1) + n + Math.max(n-1, 0)
+				+ (branchy ? k.termEdges.length + k.termini.length : 0);
+
+		if (this.count == this.offsets.length) this.growPaths();
+		if (this.arenaSize + len > this.arena.length) {
+			this.arena = Arrays.copyOf(this.arena, Math.max(this.arena.length * 2, this.arenaSize + len));
+		}
+
+		int id = this.count++;
+		int at = this.arenaSize;
+		this.offsets[id] = at;
+		this.hashes[id] = k.hash;
+
+		this.arena[at++] = branchy ? -n : n;
+		if (branchy) {
+			this.arena[at++] = k.termEdges.length;
+			this.arena[at++] = k.termini.length;
+		}
+		for (int i = 0; i < n; i++) {
+			this.arena[at++] = k.nodeIds[i];
+			this.post(k.nodeIds[i], id);
+		}
+		for (int i = 0; i < n-1; i++) {
+			this.arena[at++] = this.edgeId(k.bodyEdges[i]);
+		}
+		if (branchy) {
+			for (Edge e : k.termEdges) {
+				this.arena[at++] = this.edgeId(e);
+			}
+			for (int t : k.termini) {
+				this.arena[at++] = t;
+				this.post(t, id);
+			}
+		}
+		this.arenaSize = at;
+
+		if (2 * this.count > this.table.length) this.rehash();
+		this.insert(id);
+		return id;
+	}
+
+	/**
+	 * Room for twice as many paths.
+	 */
+	private void growPaths() {
+		int cap = this.offsets.length * 2;
+		this.offsets = Arrays.copyOf(this.offsets, cap);
+		this.hashes = Arrays.copyOf(this.hashes, cap);
+		this.pathHashes = Arrays.copyOf(this.pathHashes, cap);
+		this.masks = Arrays.copyOf(this.masks, cap * this.words);
+	}
+
+	private void insert(int id) {
+		int mask = this.table.length - 1;
+		int slot = spread(this.hashes[id]) & mask;
+		while (this.table[slot] != 0) slot = (slot+1) & mask;
+		this.table[slot] = id + 1;
+	}
+
+	private void rehash() {
+		this.table = new int[this.table.length * 2];
+		for (int id = 0; id < this.count; id++) {
+			this.insert(id);
+		}
+	}
+
+	/**
+	 * Adds the path to the node's postings list. Paths are stored in
+	 * ID order, so the list stays sorted; a path that visits a node
+	 * twice (e.g. a terminus in the body) is only listed once.
+	 */
+	private void post(int node, int id) {
+		int[] list = this.postings[node];
+		int size = this.postingSizes[node];
+		if (size > 0 && list[size-1] == id) return;
+		if (list == null) {
+			list = new int[4];
+		} else if (size == list.length) {
+			list = Arrays.copyOf(list, size * 2);
+		}
+		list[size] = id;
+		this.postings[node] = list;
+		this.postingSizes[node] = size + 1;
+	}
+
+	private int nodeId(String node, boolean add) {
+		Integer n = this.nodeIds.get(node);
+		if (n != null) return n;
+		if (!add) return -1;
+		int id = this.nodes.size();
+		this.nodes.add(node);
+		this.nodeIds.put(node, id);
+		if (id == this.postings.length) {
+			this.postings = Arrays.copyOf(this.postings, id * 2);
+			this.postingSizes = Arrays.copyOf(this.postingSizes, id * 2);
+		}
+		return id;
+	}
+
+	private int edgeId(Edge e) {
+		Integer x = this.edgeIds.get(e);
+		if (x != null) return x;
+		int id = this.edges.size();
+		this.edges.add(e);
+		this.edgeIds.put(e, id);
+		return id;
+	}
+
+	/**
+	 * The label's ID. A new label past the last word of the masks
+	 * gets another word for every path.
+	 */
+	private int labelId(String label) {
+		Integer l = this.labelIds.get(label);
+		if (l != null) return l;
+		int id = this.labelNames.size();
+		this.labelNames.add(label);
+		this.labelIds.put(label, id);
+		if (id == this.labelCounts.length) {
+			this.labelCounts = Arrays.copyOf(this.labelCounts, id * 2);
+			this.labelPaths = Arrays.copyOf(this.labelPaths, id * 2);
+		}
+		if (id == this.words * 64) {
+			int w = this.words + 1;
+			long[] wider = new long[this.offsets.length * w];
+			for (int p = 0; p < this.count; p++) {
+				System.arraycopy(this.masks, p * this.words, wider, p * w, this.words);
+			}
+			this.masks = wider;
+			this.words = w;
+		}
+		return id;
+	}
+
+	/**
+	 * What Path.equals sees of an edge: its direction and sign.
+	 */
+	private static int kind(Edge e) {
+		return (e.isDirected() ? 3 : 0) + e.sign().ordinal();
+	}
+
+	private static int spread(int h) {
+		h ^= (h >>> 16);
+		return h * 0x9E3779B1;
+	}
+
+	/**
+	 * A path in ID form, for storing it or looking it up.
+	 */
+	protected class Key {
+		// body nodes; null if we're looking up and a node isn't here
+		protected int[] nodeIds;
+		protected Edge[] bodyEdges;
+		// null for a linear path
+		protected Edge[] termEdges;
+		protected int[] termini;
+		protected int hash;
+
+		/**
+		 * @param p
+		 * @param add	give new nodes IDs? (if not, and there's a new
+		 * 				node, we don't have the path)
+		 */
+		protected Key(Path p, boolean add) {
+			List<String> pnodes = p.nodeList();
+			List<Edge> pedges = p.edgeList();
+			int n = pnodes.size();
+			int[] ids = new int[n];
+			int h = n;
+			for (int i = 0; i < n; i++) {
+				ids[i] = nodeId(pnodes.get(i), add);
+				if (ids[i] < 0) return;
+				h = 31 * h + ids[i];
+			}
+			this.bodyEdges = pedges.toArray(new Edge[pedges.size()]);
+			for (Edge e : this.bodyEdges) {
+				h = 31 * h + kind(e);
+			}
+
+			if (p instanceof BranchyPath) {
+				BranchyPath bp = (BranchyPath) p;
+				this.termEdges = bp.terminalEdges().toArray(new Edge[0]);
+				int[] term = new int[bp.termini().size()];
+				int i = 0;
+				for (String t : bp.termini()) {
+					term[i] = nodeId(t, add);
+					if (term[i++] < 0) return;
+				}
+				Arrays.sort(term);
+				h = -h;
+				for (int t : term) {
+					h = 31 * h + t;
+				}
+				this.termini = term;
+			}
+			this.nodeIds = ids;
+			this.hash = h;
+		}
+	}
+
+	/**
+	 * Read-only view of a set of our paths: all of them, those with a label,
+	 * or those through a node. Builds each path as it's iterated,
+	 * in the order of the matching set in a PathManager.
+	 */
+	protected class PathView extends AbstractSet<Path> {
+		protected static final int ALL=0, LABEL=1, NODE=2;
+
+		protected final int mode;
+		// label or node ID
+		protected final int which;
+
+		protected PathView(int mode, int which) {
+			this.mode = mode;
+			this.which = which;
+		}
+
+		@Override
+		public int size() {
+			switch (this.mode) {
+			case LABEL: return labelCounts[this.which];
+			case NODE: return postingSizes[this.which];
+			default: return count;
+			}
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Path)) return false;
+			int id = idOf((Path) o);
+			if (id < 0) return false;
+			switch (this.mode) {
+			case LABEL: return hasLabel(id, this.which);
+			case NODE: return Arrays.binarySearch(postings[this.which], 0, postingSizes[this.which], id) >= 0;
+			default: return true;
+			}
+		}
+
+		/**
+		 * IDs of the paths in the view, in iteration order.
+		 */
+		private int[] order() {
+			switch (this.mode) {
+			case LABEL: return hashOrder(labelPaths[this.which], labelCounts[this.which]);
+			case NODE: return hashOrder(postings[this.which], postingSizes[this.which]);
+			default: return allOrder();
+			}
+		}
+
+		@Override
+		public Iterator<Path> iterator() {
+			return new Iterator<Path>() {
+				private final int[] ids = order();
+				private int pos = 0;
+
+				public boolean hasNext() {
+					return this.pos < this.ids.length;
+				}
+
+				public Path next() {
+					if (!this.hasNext()) throw new NoSuchElementException();
+					return path(this.ids[this.pos++]);
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+}
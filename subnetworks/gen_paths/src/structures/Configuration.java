@@ -9,9 +9,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import pathfinders.PathFinder;
 import structures.EdgeCollapser.Collapser;
@@ -58,6 +65,22 @@ public final class Configuration {
 	public static final String SCORED_PAIRDIR="SCORED_PAIRS";
 	
 	public static final String HIDE_HIT_DIR="HIDE_HIT_DIR";
+	
+	public static final String SNAPSHOT="SNAPSHOT";
+	
+	public static final String SEARCH_THREADS="SEARCH_THREADS";
+	
+	public static final String BATCH_SEARCH="BATCH_SEARCH";
+	
+	public static final String COUNT_PATHS="COUNT_PATHS";
+	
+	public static final String COMPACT_PATHS="COMPACT_PATHS";
+	
+	// last column of a pair pathfinder line: turns on target-distance pruning
+	public static final String PRUNE="PRUNE";
+	// ... and/or this one: only keeps paths whose sign matches their pair's
+	// (without PRUNE, it just filters the paths found; the search is no smaller)
+	public static final String SIGNED="SIGNED";
 
 	public static final String AND="and", OR="or"; 
 
@@ -120,6 +143,33 @@ public final class Configuration {
 	
 	// gams label mode?
 	protected LabelMode gamsLabelMode = LabelMode.STRIP;
+	
+	// how many start nodes each pathfinder searches from at once
+	protected int searchThreads = 1;
+	
+	// search for all of the pathfinders that can share a search at once?
+	protected boolean batchSearch = false;
+	
+	// keep the paths found in a CompactPathManager?
+	protected boolean compactPaths = false;
+	
+	// count paths instead of finding them? (COUNT_PATHS line)
+	protected boolean countPaths = false;
+	// random branches sampled per start node, and the path budget
+	protected int countSamples = 1000;
+	protected long countExactLimit = 1000000;
+	
+	/*
+	 * Binary snapshot of the background network (SNAPSHOT line).
+	 * snapshotLines are the config lines the network depends on;
+	 * snapshot is set if we loaded a current snapshot instead of reading
+	 * the edge libraries, and snapshotFeats holds the node features
+	 * read from snapshotLines, in case we write a new one.
+	 */
+	protected String snapshotFn=null;
+	protected ArrayList<String> snapshotLines=null;
+	protected NetworkSnapshot snapshot=null;
+	protected HashMap<String, Pair<Feature, Map<String, Value>>> snapshotFeats;
 
 
 	protected Configuration() {
@@ -137,11 +187,14 @@ public final class Configuration {
 		this.applyToGraph = new ArrayList<FilterManager>();
 
 		pairDirs = new HashMap<String, PairDirectory>();
+		scoredPairs = new HashMap<String, ScoredPairDirectory>();
 
 		pathFinders = new ArrayList<PathFinder>();
 
 		subgraphs = new HashMap<String, Subgraph>();
 		subgraphAddMode = new HashMap<String, AddEdgeMode>();
+		
+		snapshotFeats = new HashMap<String, Pair<Feature, Map<String, Value>>>();
 	}
 
 	/**
@@ -150,6 +203,29 @@ public final class Configuration {
 	 * @return
 	 */
 	public Graph buildGraph() throws DuplicateException {
+		return this.buildGraph(false);
+	}
+
+	/**
+	 * Returns the graph built from the Config's edge libraries,
+	 * with all FILTER_GRAPH-requested filters run, and optionally with
+	 * self-loops and edgeless nodes removed. The graph is frozen, so
+	 * it can be shared between PathFinders; copy it to modify it.
+	 * 
+	 * NodeFilterManagers only look at the node library, so consecutive ones
+	 * are folded into a single set of kept nodes, which is applied together 
+	 * with the cleanup in one pass over the graph. (Graph-based filters
+	 * still see the graph as filtered up to that point.)
+	 * 
+	 * @param clean	if true, remove self-loops and then edgeless nodes
+	 * @return
+	 */
+	public Graph buildGraph(boolean clean) throws DuplicateException {
+		// the snapshot holds the finished graph
+		if (this.snapshot != null && this.snapshot.isClean() == clean) {
+			return this.snapshot.graph().freeze();
+		}
+		
 		Graph g = null;
 		if (this.edgeOverrideFeature != null) {
 			g=Graph.createFromEdgeLibrary(this.edgeLibrary(), this.getEdgeOverrideFeature());
@@ -157,11 +233,100 @@ public final class Configuration {
 			g= Graph.createFromEdgeLibrary(this.edgeLibrary());
 		}
 		
+		// nodes accepted by the pending node-library filters
+		HashSet<String> keep = null;
 		for (FilterManager fm : this.applyToGraph) {
-			g = fm.filter(g);
+			if (fm instanceof NodeFilterManager) {
+				NodeFilterManager nfm = (NodeFilterManager) fm;
+				HashSet<String> accepted = new HashSet<String>();
+				for (String n : (keep == null ? g.nodes() : keep)) {
+					if (nfm.accept(n)) accepted.add(n);
+				}
+				keep = accepted;
+			} else {
+				if (keep != null) {
+					g = g.derive(keep, false, false);
+					keep = null;
+				}
+				g = fm.filter(g);
+			}
 		}
 
-		return g;
+		if (keep != null || clean) {
+			g = g.derive(keep, clean, clean);
+		}
+		return g.freeze();
+	}
+
+	/**
+	 * Writes a snapshot of the background network to the file named on 
+	 * the SNAPSHOT line, unless there is no SNAPSHOT line or we
+	 * already loaded a current snapshot from it.
+	 * 
+	 * The snapshot is only a cache, so if it can't be written (e.g. an
+	 * ordinal feature, or an unwritable directory) we say so and go on.
+	 * 
+	 * @param g	the graph from buildGraph(clean)
+	 * @param clean	as passed to buildGraph
+	 * @return	true if a snapshot was written
+	 */
+	public boolean writeSnapshot(Graph g, boolean clean) {
+		if (this.snapshotFn == null || this.snapshotLines == null || this.snapshot != null) {
+			return false;
+		}
+		try {
+			NetworkSnapshot.write(this.snapshotFn, this.snapshotLines, clean, 
+					g, this.edgeLibe, this.snapshotFeats);
+		} catch (IOException ioe) {
+			System.err.format("Didn't write snapshot %s: %s\n", this.snapshotFn, ioe);
+			return false;
+		}
+		System.out.format("Wrote snapshot of background network to %s\n", this.snapshotFn);
+		return true;
+	}
+	
+	/**
+	 * Finds the SNAPSHOT line, if any, and loads the snapshot
+	 * if it's still current.
+	 * @param lines	all config lines
+	 */
+	protected void openSnapshot(List<String> lines) throws IOException {
+		for (String line : lines) {
+			String[] sp = line.split(FIELD_DELIM);
+			if (sp[0].equals(SNAPSHOT) && sp.length > 1) {
+				this.snapshotFn = sp[1];
+			}
+		}
+		if (this.snapshotFn == null) return;
+		
+		this.snapshotLines = NetworkSnapshot.backgroundLines(lines);
+		if (this.snapshotLines == null) {
+			System.out.format("Can't use snapshot %s with %s lines.\n", this.snapshotFn, NODE_MAP);
+			return;
+		}
+		if (new File(this.snapshotFn).isFile()) {
+			try {
+				this.snapshot = NetworkSnapshot.load(this.snapshotFn, this.snapshotLines);
+			} catch (IOException ioe) {
+				System.err.format("Couldn't read snapshot %s (%s); reading the network from its source files.\n",
+						this.snapshotFn, ioe.getMessage());
+				this.snapshot = null;
+			}
+			if (this.snapshot != null) {
+				System.out.format("Loaded background network from snapshot %s\n", this.snapshotFn);
+			}
+		}
+	}
+
+	/**
+	 * Makes the read-only copy of a graph that the PathFinders search.
+	 * (A graph from a snapshot is already compact, and is used as is.)
+	 * @param g	the filtered graph
+	 * @return
+	 */
+	public Graph searchGraph(Graph g) {
+		if (g instanceof CompactGraph) return g;
+		return new CompactGraph(g);
 	}
 
 	public NodeLibrary nodeLibrary() {
@@ -176,6 +341,65 @@ public final class Configuration {
 		return Collections.unmodifiableMap(this.nodeFilters);
 	}
 
+	/**
+	 * Number of start nodes each pathfinder searches from at once.
+	 * @return
+	 */
+	public int searchThreads() {
+		return this.searchThreads;
+	}
+
+	/**
+	 * Should pathfinders that start from the same nodes share one search 
+	 * from each (BATCH_SEARCH line)?
+	 * @return
+	 */
+	public boolean batchSearch() {
+		return this.batchSearch;
+	}
+
+	/**
+	 * Should we keep the paths we find in compact form (COMPACT_PATHS line)?
+	 * @return
+	 */
+	public boolean compactPaths() {
+		return this.compactPaths;
+	}
+	
+	/**
+	 * Makes an empty PathManager of the kind requested:
+	 * a CompactPathManager if there's a COMPACT_PATHS line.
+	 * @return
+	 */
+	public PathManager pathManager() {
+		return this.compactPaths ? new CompactPathManager() : new PathManager();
+	}
+
+	/**
+	 * Should we only count the paths each pathfinder would find (COUNT_PATHS line)?
+	 * @return
+	 */
+	public boolean countPaths() {
+		return this.countPaths;
+	}
+	
+	/**
+	 * Number of random search branches sampled per start node to estimate path counts.
+	 * @return
+	 */
+	public int countSamples() {
+		return this.countSamples;
+	}
+	
+	/**
+	 * Path budget for counting mode: start nodes with at most this many 
+	 * estimated paths get counted exactly.
+	 * @return
+	 */
+	public long countExactLimit() {
+		return this.countExactLimit;
+	}
+
 	public ArrayList<PathFinder> pathFinders() {
 		return this.pathFinders;
 	}
@@ -296,6 +520,16 @@ public final class Configuration {
 	public PairDirectory getPairDirectory(String name) {
 		return this.pairDirs.get(name);
 	}
+	
+	/**
+	 * Gets a ScoredPairDirectory declared on a SCORED_PAIRS line.
+	 * (These can also be used anywhere a PairDirectory can.)
+	 * @param name
+	 * @return	the directory, or null if there isn't a scored one with that name
+	 */
+	public ScoredPairDirectory getScoredPairDirectory(String name) {
+		return this.scoredPairs.get(name);
+	}
 
 
 	/**
@@ -342,16 +576,41 @@ public final class Configuration {
 
 		Configuration config=new Configuration();
 
+		ArrayList<String> lines = new ArrayList<String>();
 		while (s.hasNext()) {
 			String line = s.nextLine().trim();
 			if (line.startsWith(COMMENT) || line.length() == 0) {
 				continue;
 			} 
+			lines.add(line);
+		}
+		s.close();
+		
+		// If there's a current snapshot, we can skip reading the background network.
+		config.openSnapshot(lines);
+		
+		// Node feature and pair files only depend on their own lines,
+		// so read them in the background while we go through the config.
+		HashMap<String, Future<Pair<Feature, Map<String, Value>>>> featReads = 
+				new HashMap<String, Future<Pair<Feature, Map<String, Value>>>>();
+		HashMap<String, Future<PairDirectory>> pairReads = new HashMap<String, Future<PairDirectory>>();
+		prefetch(lines, config, featReads, pairReads);
+
+		for (String line : lines) {
 			String[] sp = line.split(FIELD_DELIM);
 
 			// Contents of field 0 tells us what to do with this line.
-			if (sp[0].equals(NODE_FEATURE) && sp.length > 2) {				
-				Pair<Feature, Map<String, Value>> pair = readNodeFeature(sp);
+			if (sp[0].equals(NODE_FEATURE) && sp.length > 2) {
+				Pair<Feature, Map<String, Value>> pair = null;
+				if (config.snapshot != null) {
+					pair = config.snapshot.nodeFeature(line);
+				}
+				if (pair == null) {
+					pair = await(featReads.get(line));
+				}
+				if (config.snapshotLines != null && config.snapshotLines.contains(line)) {
+					config.snapshotFeats.put(line, pair);
+				}
 				config.addNodeFeature(pair.first(), pair.second());
 			} 
 			else if (sp.length == 2 &&
@@ -371,6 +630,11 @@ public final class Configuration {
 				}
 			}
 
+			else if (sp[0].equals(EDGE_LIBRARY) && config.snapshot != null) {
+				// the snapshot holds all of the edge libraries, already collapsed
+				config.edgeLibe = config.snapshot.edgeLibrary();
+			}
+
 			else if (sp[0].equals(EDGE_LIBRARY)) {
 				EdgeLibrary newEl = readEdgeFile(config, sp);
 				config.edgeLibe.addAll(newEl);	
@@ -478,9 +742,25 @@ public final class Configuration {
 				config.setGraphFiltering(sp);
 			} 
 
+			else if (sp[0].equals(SNAPSHOT)) {
+				// handled by openSnapshot before reading anything else
+			}
+
 			else if (sp[0].equals(GAMS_FILE)) {
 				config.setGamsFile(sp[1]);
 			}
+			else if (sp[0].equals(SEARCH_THREADS)) {
+				config.searchThreads = readSearchThreads(sp);
+			}
+			else if (sp[0].equals(BATCH_SEARCH)) {
+				config.batchSearch = true;
+			}
+			else if (sp[0].equals(COMPACT_PATHS)) {
+				config.compactPaths = true;
+			}
+			else if (sp[0].equals(COUNT_PATHS)) {
+				config.readCountPaths(sp);
+			}
 			else if (sp[0].equals(GAMS_LABEL_MODE)) {
 				config.setGamsLabelMode(LabelMode.valueOf(sp[1].toUpperCase()));
 			}
@@ -495,17 +775,20 @@ public final class Configuration {
 				}
 			}
 			else if (sp[0].equals(INDIRECTORY) || sp[0].equals(PAIRS)) {
-				PairDirectory indie = null;
-				if (sp[0].equals(INDIRECTORY)) {
-					indie = PairDirectory.readIndirectory(sp[2], sp[1]);
-				} else if (sp[0].equals(PAIRS)) {
-					indie = readPairDir(sp);
-				}
+				PairDirectory indie = await(pairReads.get(line));
 				PairDirectory overwrite = config.addPairDirectory(sp[1], indie);
 				if (overwrite != null) {
 					throw new DuplicateException("Found duplicate PairDirectory name: " + sp[1]);
 				}
 			} 
+			else if (sp[0].equals(SCORED_PAIRDIR)) {
+				ScoredPairDirectory scored = (ScoredPairDirectory) await(pairReads.get(line));
+				// usable as a plain pair directory, too
+				if (config.addPairDirectory(sp[1], scored) != null) {
+					throw new DuplicateException("Found duplicate PairDirectory name: " + sp[1]);
+				}
+				config.addScoredPairDirectory(sp[1], scored);
+			}
 			// Edge collapser for libraries?
 			else if (sp[0].equals(COLLAPSER)) {
 				Collapser c = Collapser.fromName(sp[1]);							
@@ -568,9 +851,153 @@ public final class Configuration {
 			}
 		}
 
+		// the SEARCH_THREADS line can come before or after the pathfinders
+		for (PathFinder pf : config.pathFinders) {
+			pf.setThreads(config.searchThreads);
+		}
+
 		return config;		
 	}
 
+	/**
+	 * Reads the number of search threads from a SEARCH_THREADS line.
+	 * "auto" uses one thread per available processor.
+	 * 
+	 * SEARCH_THREADS	8
+	 * 
+	 * @param sp
+	 * @return
+	 */
+	protected static int readSearchThreads(String[] sp) throws InvalidValueException {
+		if (sp.length < 2) {
+			throw new InvalidValueException("Please specify the number of search threads: " + Arrays.toString(sp));
+		}
+		if (sp[1].equalsIgnoreCase("auto")) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		int threads = 0;
+		try {
+			threads = Integer.parseInt(sp[1]);
+		} catch (NumberFormatException nfe) {
+			// handled below
+		}
+		if (threads < 1) {
+			throw new InvalidValueException("Invalid number of search threads: " + sp[1]);
+		}
+		return threads;
+	}
+	
+	/**
+	 * Turns on counting mode from a COUNT_PATHS line: instead of finding 
+	 * paths, count how many each pathfinder would find.
+	 * Optional columns: the number of random branches sampled per start
+	 * node for estimates, and a path budget: start nodes with estimates
+	 * up to it are counted exactly, and we report the deepest search
+	 * that stays within it.
+	 * 
+	 * COUNT_PATHS	[1000]	[1000000]
+	 * 
+	 * @param sp
+	 */
+	protected void readCountPaths(String[] sp) throws InvalidValueException {
+		this.countPaths = true;
+		try {
+			if (sp.length > 1) this.countSamples = Integer.parseInt(sp[1]);
+			if (sp.length > 2) this.countExactLimit = Long.parseLong(sp[2]);
+		} catch (NumberFormatException nfe) {
+			throw new InvalidValueException("Invalid path counting settings: " + Arrays.toString(sp));
+		}
+		if (this.countSamples < 1 || this.countExactLimit < 0) {
+			throw new InvalidValueException("Invalid path counting settings: " + Arrays.toString(sp));
+		}
+	}
+
+	/**
+	 * Starts reading the files named on NFEATURE and ST_PAIRS/INDIRECTORY lines
+	 * on a small thread pool. (Node features that come from a snapshot
+	 * are skipped.) The parsers only share the Node and Value tables,
+	 * which are thread-safe.
+	 * 
+	 * @param lines	config lines
+	 * @param config	
+	 * @param featReads	filled in with pending node feature reads, by line
+	 * @param pairReads	filled in with pending pair directory reads, by line
+	 */
+	protected static void prefetch(List<String> lines, Configuration config,
+			HashMap<String, Future<Pair<Feature, Map<String, Value>>>> featReads,
+			HashMap<String, Future<PairDirectory>> pairReads) {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors()-1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				// don't hold up the JVM if reading the config fails part-way
+				Thread t = new Thread(r, "config-reader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		for (String line : lines) {
+			final String[] sp = line.split(FIELD_DELIM);
+			if (featReads.containsKey(line) || pairReads.containsKey(line)) {
+				continue;
+			}
+			if (sp[0].equals(NODE_FEATURE) && sp.length > 2) {
+				if (config.snapshot != null && config.snapshot.nodeFeature(line) != null) {
+					continue;
+				}
+				featReads.put(line, pool.submit(new Callable<Pair<Feature, Map<String, Value>>>() {
+					public Pair<Feature, Map<String, Value>> call() throws Exception {
+						return readNodeFeature(sp);
+					}
+				}));
+			} else if (sp[0].equals(INDIRECTORY)) {
+				pairReads.put(line, pool.submit(new Callable<PairDirectory>() {
+					public PairDirectory call() throws Exception {
+						return PairDirectory.readIndirectory(sp[2], sp[1]);
+					}
+				}));
+			} else if (sp[0].equals(PAIRS)) {
+				pairReads.put(line, pool.submit(new Callable<PairDirectory>() {
+					public PairDirectory call() throws Exception {
+						return readPairDir(sp);
+					}
+				}));
+			} else if (sp[0].equals(SCORED_PAIRDIR)) {
+				pairReads.put(line, pool.submit(new Callable<PairDirectory>() {
+					public PairDirectory call() throws Exception {
+						return readPairDir(sp, true);
+					}
+				}));
+			}
+		}
+		// run what we've submitted, then let the threads go
+		pool.shutdown();
+	}
+
+	/**
+	 * Waits for a background read to finish, and passes along
+	 * anything it threw.
+	 * @param read
+	 * @return
+	 */
+	private static <T> T await(Future<T> read) 
+	throws IOException, InvalidValueException, DuplicateException {
+		try {
+			return read.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading input files.");
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof InvalidValueException) throw (InvalidValueException) cause;
+			if (cause instanceof DuplicateException) throw (DuplicateException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
 	/**
 	 * Makes a Filter based on a graph feature.
 	 * Config line looks like this: 
@@ -722,6 +1149,19 @@ public final class Configuration {
 	 * @return
 	 */
 	protected static PairDirectory readPairDir(String[] sp)
+	throws InvalidValueException, IOException, DuplicateException {
+		return readPairDir(sp, false);
+	}
+	
+	/**
+	 * Reads a pair directory, or a scored one, from a config line.
+	 * Scored pairs have the same arguments, and a score in the last column of the file:
+	 * SCORED_PAIRS	name	filename	positive=POSTEXT,negative=NEGTEXT,format=%s_D
+	 * @param sp
+	 * @param scored	read a ScoredPairDirectory?
+	 * @return
+	 */
+	protected static PairDirectory readPairDir(String[] sp, boolean scored)
 	throws InvalidValueException, IOException, DuplicateException {
 		String name = sp[1];
 		String filename = sp[2];
@@ -755,6 +1195,10 @@ public final class Configuration {
 				}
 			}
 		}
+		if (scored) {
+			return ScoredPairDirectory.readScoredPairs(filename, name, format, 
+					readSigns, posText, negText);
+		}
 		return PairDirectory.readOrderedPairs(filename,name,  format, 
 				readSigns, posText, negText);	
 
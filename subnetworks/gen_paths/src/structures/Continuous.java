@@ -1,6 +1,6 @@
 package structures;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Wrapper for double values, implemented with Singleton pattern
@@ -12,7 +12,7 @@ public class Continuous extends Value {
 	private double value; 
 	
 	// Keeps Singletons of the values we've created so far.
-	private static HashMap<String, Continuous> created = new HashMap<String, Continuous>();
+	private static ConcurrentHashMap<String, Continuous> created = new ConcurrentHashMap<String, Continuous>();
 
 	private Continuous(String s) throws NumberFormatException {
 		this.value = Double.parseDouble(s);
@@ -36,11 +36,12 @@ public class Continuous extends Value {
 	 * @return
 	 */
 	public static Continuous makeValue(String ds) {
-		if (!Continuous.created.containsKey(ds)) {
-			Continuous cont = new Continuous(Double.parseDouble(ds));
-			created.put(ds, cont);
+		Continuous cont = Continuous.created.get(ds);
+		if (cont == null) {
+			created.putIfAbsent(ds, new Continuous(Double.parseDouble(ds)));
+			cont = Continuous.created.get(ds);
 		}
-		return Continuous.created.get(ds);
+		return cont;
 	}
 	
 	public static Continuous makeValue(double d) {
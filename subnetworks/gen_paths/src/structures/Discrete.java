@@ -1,5 +1,5 @@
 package structures;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 
@@ -11,8 +11,8 @@ import java.util.HashMap;
 public class Discrete extends Value {
 	private String value; 
 	
-	private final static HashMap<String, Discrete> created = 
-		new HashMap<String, Discrete>();
+	private final static ConcurrentHashMap<String, Discrete> created = 
+		new ConcurrentHashMap<String, Discrete>();
 
 	private Discrete(String s) {
 		this.value = s;
@@ -25,11 +25,12 @@ public class Discrete extends Value {
 	}
 	
 	public static Discrete makeValue(String value) {
-		if (!created.containsKey(value)) {
-			Discrete disc = new Discrete(value);
-			created.put(value, disc);
+		Discrete disc = created.get(value);
+		if (disc == null) {
+			created.putIfAbsent(value, new Discrete(value));
+			disc = created.get(value);
 		}
-		return created.get(value);		
+		return disc;		
 	}
 	
 	@Override
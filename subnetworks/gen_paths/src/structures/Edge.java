@@ -1,6 +1,8 @@
 package structures;
 
-import java.util.HashSet;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import utilities.Enums.Sign;
@@ -8,6 +10,11 @@ import utilities.Enums.Sign;
 /**
  * An edge is a pair of nodes (strings) that may be directed.
  * Immutable once made!
+ * 
+ * Equality and hashing use a packed identity (the nodes' integer IDs
+ * from Node.id, plus the direction and sign bits), so edges never
+ * have to build strings to be stored or looked up. The string key is 
+ * only built when it's needed for printing or ordering.
  * Compare based on string representation.
  * @author chasman
  *
@@ -18,13 +25,23 @@ public class Edge implements Comparable<Edge>{
 	/*
 	 * Nodes
 	 */
-	protected final String i, j, key;
+	protected final String i, j;
 	
 	// is the edge directed?
 	protected final boolean directed;
 	
 	// does it have a sign?
-	protected Sign sign;
+	protected final Sign sign;
+	
+	/*
+	 * Packed identity: 30 bits each for the IDs of i and j, 
+	 * then one bit for direction and two for the sign.
+	 */
+	protected final long code;
+	private static final int ID_BITS=30, FLAG_BITS=3;
+	
+	// i.j.d.S, built on first use
+	private String key;
 	
 	/**
 	 * Creates an edge between nodes i and j. 
@@ -35,11 +52,23 @@ public class Edge implements Comparable<Edge>{
 	 * @param sign
 	 */
 	public Edge(String i, String j, boolean directed, Sign sign) {
+		this(i, j, Node.id(i), Node.id(j), directed, sign);
+	}
+	
+	/**
+	 * Creates an edge between nodes i and j when we already 
+	 * know their IDs.
+	 */
+	Edge(String i, String j, int iId, int jId, boolean directed, Sign sign) {
+		assert(iId < (1 << ID_BITS) && jId < (1 << ID_BITS)) : "Too many nodes to pack into an edge.";
 		this.i=i;
 		this.j=j;
 		this.directed=directed;
 		this.sign=sign;
-		this.key=makeKey();
+		this.code = ((long) iId << (ID_BITS + FLAG_BITS)) 
+				| ((long) jId << FLAG_BITS) 
+				| (directed ? 1 << 2 : 0) 
+				| sign.ordinal();
 	}		
 	
 	/**
@@ -67,8 +96,10 @@ public class Edge implements Comparable<Edge>{
 	}
 	
 	private String makeKey() {
-		String d = directed? "d" : "u";
-		return String.format("%s.%s.%s.%s", this.i,this.j, d, this.sign.abbrev());
+		StringBuilder sb = new StringBuilder(this.i.length() + this.j.length() + 6);
+		sb.append(this.i).append('.').append(this.j).append('.');
+		sb.append(directed ? 'd' : 'u').append('.').append(this.sign.abbrev());
+		return sb.toString();
 	}
 	
 	/** 
@@ -79,7 +110,7 @@ public class Edge implements Comparable<Edge>{
 	 * @return
 	 */
 	public Edge replaceNode(String orig, String rep) {
-		if (!this.nodes().contains(orig)) {
+		if (!this.contains(orig)) {
 			return null;
 		}
 		Edge replacement=null;
@@ -91,6 +122,38 @@ public class Edge implements Comparable<Edge>{
 		return replacement;
 	}
 	
+	/**
+	 * The same edge with its nodes the other way round
+	 * (for an undirected edge, the other way of storing it).
+	 * @return
+	 */
+	public Edge reverse() {
+		int iId = (int) (this.code >>> (ID_BITS + FLAG_BITS));
+		int jId = (int) ((this.code >>> FLAG_BITS) & ((1 << ID_BITS) - 1));
+		return new Edge(this.j, this.i, jId, iId, this.directed, this.sign);
+	}
+	
+	/**
+	 * The pair of nodes this edge connects, as one number that's the same
+	 * either way round (and whatever the direction and sign).
+	 * @return
+	 */
+	long pair() {
+		int iId = (int) (this.code >>> (ID_BITS + FLAG_BITS));
+		int jId = (int) ((this.code >>> FLAG_BITS) & ((1 << ID_BITS) - 1));
+		return pair(iId, jId);
+	}
+	
+	/**
+	 * The pair of nodes with these IDs (see pair()).
+	 * @param aId
+	 * @param bId
+	 * @return
+	 */
+	static long pair(int aId, int bId) {
+		return ((long) Math.min(aId, bId) << ID_BITS) | Math.max(aId, bId);
+	}
+	
 	/**
 	 * Returns true if the edge is directed.
 	 * @return
@@ -131,14 +194,55 @@ public class Edge implements Comparable<Edge>{
 
 
 	/**
-	 * Returns the nodes in this edge.
+	 * Returns true if node a is either end of this edge.
+	 * @param a
+	 * @return
+	 */
+	public boolean contains(String a) {
+		return a.equals(this.i) || a.equals(this.j);
+	}
+	
+	/**
+	 * Gets the node at the other end of the edge from a.
+	 * @param a
+	 * @return	the other node (a itself for self-loops), or null if a isn't in the edge
+	 */
+	public String other(String a) {
+		if (a.equals(this.i)) return this.j;
+		if (a.equals(this.j)) return this.i;
+		return null;
+	}
+
+	/**
+	 * Returns the nodes in this edge, as a read-only view
+	 * (one node for a self-loop). Where it matters, use i(), j()
+	 * or contains(node), which don't make anything at all.
 	 * @return
 	 */
 	public Set<String> nodes() {
-		HashSet<String> nodes = new HashSet<String>();
-		nodes.add(i);
-		nodes.add(j);
-		return nodes;
+		return new AbstractSet<String>() {
+			public int size() {
+				return i.equals(j) ? 1 : 2;
+			}
+			public boolean contains(Object o) {
+				return i.equals(o) || j.equals(o);
+			}
+			public Iterator<String> iterator() {
+				return new Iterator<String>() {
+					private int next = 0;
+					public boolean hasNext() {
+						return next < size();
+					}
+					public String next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						return next++ == 0 ? i : j;
+					}
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
 	}
 	
 	/**
@@ -178,6 +282,9 @@ public class Edge implements Comparable<Edge>{
 	 */
 	@Override
 	public String toString() {
+		if (this.key == null) {
+			this.key = makeKey();
+		}
 		return this.key;
 	}
 	
@@ -185,7 +292,7 @@ public class Edge implements Comparable<Edge>{
 	@Override
 	public boolean equals(Object other) {
 		if (!(other instanceof Edge)) return false;
-		return this.toString().equals(other.toString());
+		return this.code == ((Edge) other).code;
 	}
 
 	/**
@@ -194,11 +301,15 @@ public class Edge implements Comparable<Edge>{
 	 */
 	@Override
 	public int compareTo(Edge other) {
-		return this.key.compareTo(other.key);
+		if (this.code == other.code) return 0;
+		return this.toString().compareTo(other.toString());
 	}
 	
 	public int hashCode() {
-		return this.key.hashCode();
+		// hash the (cached) name hashes rather than the IDs, so that hash
+		// order doesn't depend on which thread happened to see a node first
+		int h = 31 * this.i.hashCode() + this.j.hashCode();
+		return 31 * h + (int) (this.code & ((1 << FLAG_BITS) - 1));
 	}
 	
 
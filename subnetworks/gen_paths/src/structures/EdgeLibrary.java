@@ -60,6 +60,13 @@ public class EdgeLibrary extends Library<Edge>{
 	 * Use this for things like lists of PMIDs and other source information.
 	 */
 	protected HashMap<Edge, HashMap<String,String>> unboundFeats;
+	
+	/*
+	 * Edges by the pair of nodes they connect (see Edge.pair), for
+	 * containsConnection. Built when first needed; dropped when edges
+	 * are added or removed.
+	 */
+	protected HashMap<Long, ArrayList<Edge>> connections;
 
 	/*
 	 * When we read edges, we'll store the number of times each
@@ -131,19 +138,36 @@ public class EdgeLibrary extends Library<Edge>{
 	 * @return
 	 */
 	public HashSet<Edge> containsConnection(String a, String b) {
-		// check all possibilities		
+		// any direction, either way round, any sign
 		HashSet<Edge> contained=new HashSet<Edge>();
-
-		for (boolean dir : new boolean[] { true, false }) {
-			for (Sign sign : Sign.values()) {
-				Edge test1 = new Edge(a, b, dir, sign);
-				Edge test2 = new Edge(b, a, dir, sign);
-				if (this.contains(test1)) contained.add(test1);
-				if (this.contains(test2)) contained.add(test2);
+		ArrayList<Edge> between = this.connections().get(Edge.pair(Node.id(a), Node.id(b)));
+		if (between != null) contained.addAll(between);
+		return contained;
+	}
+	
+	/**
+	 * Our edges by the pair of nodes they connect.
+	 * @return
+	 */
+	protected HashMap<Long, ArrayList<Edge>> connections() {
+		if (this.connections == null) {
+			HashMap<Long, ArrayList<Edge>> byPair = new HashMap<Long, ArrayList<Edge>>();
+			for (Edge e : this.items()) {
+				ArrayList<Edge> between = byPair.get(e.pair());
+				if (between == null) {
+					between = new ArrayList<Edge>(2);
+					byPair.put(e.pair(), between);
+				}
+				between.add(e);
 			}
+			this.connections = byPair;
 		}
-
-		return contained;
+		return this.connections;
+	}
+	
+	@Override
+	protected void itemsChanged() {
+		this.connections = null;
 	}
 
 	/**
@@ -373,7 +397,7 @@ public class EdgeLibrary extends Library<Edge>{
 		HashSet<Edge> items = new HashSet<Edge>(this.items());	
 		HashSet<Edge> removed = new HashSet<Edge>();
 		for (Edge e : items) {
-			if (e.nodes().contains(original)) {
+			if (e.contains(original)) {
 				removed.add(e);
 				Edge replacer = e.replaceNode(original, replacement);
 				this.copyFeatures(e, replacer);
@@ -0,0 +1,27 @@
+package structures;
+
+/**
+ * A read-only graph with dense edge IDs ("slots"), so per-edge answers
+ * can be kept in a BitSet instead of a map keyed by Edge.
+ *
+ * In the compressed sparse row graphs (CompactGraph), each
+ * edge is stored in the row of its first node: the outgoing row if it's
+ * directed, otherwise the undirected row. Its slot is its index there,
+ * with undirected rows numbered after all of the outgoing ones.
+ */
+public interface EdgeSlots {
+
+	/**
+	 * Number of slots (one more than the largest).
+	 * @return
+	 */
+	public int edgeSlots();
+
+	/**
+	 * Gets an edge's slot.
+	 * @param e
+	 * @return	the slot, or -1 if the edge isn't in the graph
+	 */
+	public int slot(Edge e);
+
+}
@@ -5,6 +5,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import utilities.StringUtils;
@@ -12,6 +14,13 @@ import exceptions.DuplicateException;
 
 /**
  * Represents a graph as an incidence map.
+ * 
+ * A graph can be frozen once it's finished (Configuration.buildGraph 
+ * does this). After that any attempt to modify it throws an 
+ * UnsupportedOperationException, and since the queries only read the
+ * maps, one frozen graph can be shared by several threads 
+ * (e.g. PathFinders running at the same time) without copying it.
+ * 
  * @author chasman
  *
  */
@@ -30,13 +39,42 @@ public class Graph {
 	 * 
 	 * Ugh, maybe just keeping three maps would have been better? Unclear.
 	 */
-	protected HashMap<String, HashMap<RType, HashMap<String, HashSet<Edge>>>> graph;
+	protected final HashMap<String, HashMap<RType, HashMap<String, HashSet<Edge>>>> graph;
+
+	/*
+	 * Every edge in the graph, once. Kept up to date by add/remove
+	 * so we never have to rebuild it from the incidence map.
+	 */
+	protected final HashSet<Edge> edgeSet;
+	private final Set<Edge> edgeView;
+
+	/*
+	 * Number of distinct neighbors (other than itself) of each node,
+	 * kept up to date by add/remove. (Typed degrees are just the sizes 
+	 * of the inner maps.)
+	 */
+	private final HashMap<String, int[]> degrees;
+
+	/*
+	 * Set once by freeze(), never cleared. Volatile, so that the writes 
+	 * made while building the graph are visible to any thread that 
+	 * sees the graph as frozen.
+	 */
+	private volatile boolean frozen;
+
+	/*
+	 * Relationships in which a node can be the first node of an edge.
+	 */
+	private static final RType[] SOURCE_SIDE = { RType.OUTGOING, RType.UNDIRECTED };
 
 	/**
 	 * Makes a new graph.
 	 */
 	public Graph() {
 		this.graph = new HashMap<String, HashMap<RType, HashMap<String, HashSet<Edge>>>>();
+		this.edgeSet = new HashSet<Edge>();
+		this.edgeView = Collections.unmodifiableSet(this.edgeSet);
+		this.degrees = new HashMap<String, int[]>();
 	}
 
 	public Graph(Set<Edge> edges) {
@@ -48,6 +86,32 @@ public class Graph {
 		return Collections.unmodifiableSet(this.graph.keySet());
 	}
 
+	/**
+	 * Makes this graph read-only from now on. 
+	 * @return	this graph, for chaining
+	 */
+	public Graph freeze() {
+		this.frozen = true;
+		return this;
+	}
+
+	/**
+	 * Returns true if the graph has been frozen (is read-only).
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return this.frozen;
+	}
+
+	/**
+	 * Throws an UnsupportedOperationException if the graph is frozen.
+	 */
+	protected void checkMutable() {
+		if (this.frozen) {
+			throw new UnsupportedOperationException("Graph is frozen; copy it to modify.");
+		}
+	}
+
 	/**
 	 * Returns true if the node is in the graph.
 	 * @param node
@@ -58,7 +122,7 @@ public class Graph {
 	}
 
 	/**
-	 * Copies a graph. 
+	 * Copies a graph. (The copy isn't frozen.)
 	 * @return
 	 */
 	public Graph copy() {
@@ -72,17 +136,7 @@ public class Graph {
 	 * @return
 	 */
 	public Graph restrict(Set<String> nodes) {
-		Graph newG = new Graph();
-
-		for (String a : nodes) {
-			newG.add(a);
-			for (String b : nodes) {
-				Set<Edge> adj = this.adjacent(a,b);
-				if (adj != null) newG.addAll(adj);
-			}
-		}
-
-		return newG;	
+		return this.derive(nodes, false, false);
 	}
 
 	/**
@@ -91,25 +145,49 @@ public class Graph {
 	 * @return
 	 */
 	public Graph removeEdgeless() {
-		Graph newG = this.copy();
-		for (String s : this.nodes()) {
-			if (this.incident(s).size() == 0) newG.remove(s);
-		}
-		return newG;
+		return this.derive(null, false, true);
 	}
 
 	/**
 	 * Returns a copy of the graph in which self-loops have been removed.
-	 * removed.
+	 * Nodes left without any edges are removed as well.
 	 * @return
 	 */
 	public Graph removeSelfLoops() {
-		Graph unselfish = new Graph();
+		return this.derive(null, true, true);
+	}
 
-		for (Edge e : this.edges()) {
-			if (!e.isSelfLoop()) unselfish.add(e);
+	/**
+	 * Builds a new graph in a single pass over the kept nodes' edges:
+	 * restricts to a node set, and optionally drops self-loops and 
+	 * edgeless nodes along the way. Each edge is visited once, from its
+	 * first node, so this is O(V+E).
+	 * 
+	 * @param keep	nodes to keep; null to keep all of them. (Requested nodes
+	 * 				that aren't in this graph are added, unless dropping edgeless nodes.)
+	 * @param dropSelfLoops	if true, leave out self-loops
+	 * @param dropEdgeless	if true, leave out nodes that end up without edges
+	 * @return	the new graph
+	 */
+	public Graph derive(Set<String> keep, boolean dropSelfLoops, boolean dropEdgeless) {
+		Graph newG = new Graph();
+		Collection<String> nodes = keep == null ? this.nodes() : keep;
+
+		for (String a : nodes) {
+			if (!dropEdgeless) newG.add(a);
+
+			// directed edges are visited from their source;
+			// undirected edges from their canonical first node.
+			for (RType type : SOURCE_SIDE) {
+				for (Edge e : this.incidentView(a, type)) {
+					if (!e.i().equals(a)) continue;
+					if (dropSelfLoops && e.isSelfLoop()) continue;
+					if (keep != null && !keep.contains(e.j())) continue;
+					newG.add(e);
+				}
+			}
 		}
-		return unselfish;
+		return newG;
 	}
 
 	/**
@@ -118,27 +196,33 @@ public class Graph {
 	 * @return
 	 */
 	public boolean contains(Edge edge) {
-		if (!this.contains(edge.i) || !this.contains(edge.j)) return false;
-		boolean found=false;
-		for (RType type : this.get(edge.i).keySet()) {
-			found = this.get(edge.i, type).get(edge.j).contains(edge);
-			if (found) break;
-		}
-		return (found);
+		return this.edgeSet.contains(edge);
 	}
 
 	/**
-	 * Retrieves all edges. We make this one anew each time, because
-	 * it gets updated by additions/removals from the graph.
-	 * Use this one sparingly, okay?
+	 * Retrieves all edges, as a read-only view that stays up to date
+	 * with additions/removals from the graph. Copy it if you need to
+	 * modify the graph while iterating.
 	 * @return	a set of all the edges in this graph
 	 */
 	public Set<Edge> edges() {
-		HashSet<Edge> edges = new HashSet<Edge>();
-		for (String n : this.nodes()) {
-			edges.addAll(this.incident(n));
-		}
-		return edges;
+		return this.edgeView;
+	}
+
+	/**
+	 * Number of edges in the graph.
+	 * @return
+	 */
+	public int edgeCount() {
+		return this.edgeSet.size();
+	}
+
+	/**
+	 * Number of nodes in the graph.
+	 * @return
+	 */
+	public int nodeCount() {
+		return this.nodes().size();
 	}
 
 	/**
@@ -147,7 +231,8 @@ public class Graph {
 	 * @return
 	 */
 	public int degree(String node) {
-		return this.neighbors(node).size();
+		int[] deg = this.degrees.get(node);
+		return deg == null ? 0 : deg[0];
 	}
 
 	/**
@@ -157,11 +242,8 @@ public class Graph {
 	 * @return
 	 */
 	public int degree(String node, RType type) {
-		try {
-			return this.neighbors(node,type).size();
-		} catch (NullPointerException npe) {
-			return 0;
-		}
+		HashMap<RType, HashMap<String, HashSet<Edge>>> inner = this.graph.get(node);
+		return inner == null ? 0 : inner.get(type).size();
 	}
 
 	/**
@@ -189,14 +271,11 @@ public class Graph {
 	 * @return
 	 */
 	public Set<String> neighbors(String a) {
-		Set<Edge> incident = this.incident(a);
 		HashSet<String> neighbors = new HashSet<String>();
-		for (Edge e : incident) {
-			assert(e.nodes().contains(a)) : "Node not in incident edge? Weird.";
-
-			if (!e.i().equals(a)) neighbors.add(e.i());
-			else if (!e.j().equals(a)) neighbors.add(e.j());
+		for (RType type : RType.values()) {
+			neighbors.addAll(this.neighborView(a, type));
 		}
+		neighbors.remove(a);
 		return neighbors;
 	}
 
@@ -209,20 +288,22 @@ public class Graph {
 	 */
 	public Set<String> neighbors(String a, RType type) {
 		if (!this.contains(a)) return null;
-		Set<Edge> incident = this.incident(a, type);
-		HashSet<String> nodes = new HashSet<String>();
-		for (Edge e : incident) {
-			// get the other node.  
-			Set<String> enodes = e.nodes();
-			enodes.remove(a);
-
-			// if self-loop, then add self to list.
-			if (enodes.size()==0) nodes.add(a);
-			else {
-				nodes.addAll(enodes);
-			}
-		}
-		return nodes;
+		// includes a itself if there's a self-loop
+		return new HashSet<String>(this.neighborView(a, type));
+	}
+
+	/**
+	 * Read-only view of the neighbors of a with a particular relationship,
+	 * backed by the graph itself - nothing is copied. Includes a itself 
+	 * if there's a self-loop. Don't modify the graph while using the view.
+	 * 
+	 * @param a	node of interest
+	 * @param type	type of relationship
+	 * @return	empty if node not in graph
+	 */
+	public Collection<String> neighborView(String a, RType type) {
+		if (!this.contains(a)) return Collections.emptySet();
+		return Collections.unmodifiableSet(this.graph.get(a).get(type).keySet());
 	}
 
 	/**
@@ -237,12 +318,27 @@ public class Graph {
 		if (!this.contains(a)) return null;		
 
 		HashSet<Edge> incident = new HashSet<Edge>();
-		for (HashSet<Edge> nei : this.graph.get(a).get(type).values()) {
-			incident.addAll(nei);
+		for (Edge e : this.incidentView(a, type)) {
+			incident.add(e);
 		}
 		return incident;
 	}
 
+	/**
+	 * Read-only view of the edges of one type incident to node a.
+	 * Walks the incidence map directly instead of copying the edges into
+	 * a new set, so it's cheap to call in tight loops (e.g. search). 
+	 * Don't modify the graph while iterating over the view.
+	 * 
+	 * @param a
+	 * @param type
+	 * @return	empty if node not in graph
+	 */
+	public Iterable<Edge> incidentView(String a, RType type) {
+		if (!this.contains(a)) return Collections.emptySet();
+		return new IncidentView(this.graph.get(a).get(type).values());
+	}
+
 	/**
 	 * Returns ALL edges incident to this node.
 	 * @param a
@@ -256,10 +352,9 @@ public class Graph {
 		// node not in graph at all? empty set;
 		if (!this.contains(a)) return incident;
 
-		for (RType type : this.graph.get(a).keySet()) {
-			for (String b : this.graph.get(a).get(type).keySet()) {
-				HashSet<Edge> found = this.graph.get(a).get(type).get(b);
-				incident.addAll(found);				
+		for (RType type : RType.values()) {
+			for (Edge e : this.incidentView(a, type)) {
+				incident.add(e);
 			}
 		}
 		return incident;
@@ -275,14 +370,12 @@ public class Graph {
 	 * @return
 	 */
 	public boolean add(Edge edge) {
+		this.checkMutable();
+
 		// if either node is not already present, set up
 		// the graph data structure for them
-		if (!graph.containsKey(edge.i())) {			
-			graph.put(edge.i(), getInnerMapTemplate());
-		}		
-		if (!graph.containsKey(edge.j())) {
-			graph.put(edge.j(), getInnerMapTemplate());
-		}
+		this.add(edge.i());
+		this.add(edge.j());
 
 		// relationship between the edge and each node
 		RType iType = edge.directed ? RType.OUTGOING : RType.UNDIRECTED;
@@ -291,11 +384,13 @@ public class Graph {
 		// add to I
 		if (!graph.get(edge.i()).get(iType).containsKey(edge.j())) {
 			graph.get(edge.i()).get(iType).put(edge.j(), new HashSet<Edge>());
+			this.linked(edge.i(), edge.j(), 1);
 		}
 		boolean repI = graph.get(edge.i()).get(iType).get(edge.j()).add(edge);
 
 		if (!graph.get(edge.j()).get(jType).containsKey(edge.i())) {
 			graph.get(edge.j()).get(jType).put(edge.i(), new HashSet<Edge>());
+			this.linked(edge.j(), edge.i(), 1);
 		}
 		boolean repJ = graph.get(edge.j()).get(jType).get(edge.i()).add(edge);
 
@@ -304,6 +399,8 @@ public class Graph {
 			String.format("Graph imbalanced. Tried to add edge %s, but " +
 					"one direction was already there.");
 
+		if (repI) this.edgeSet.add(edge);
+
 		// return false if already present
 		return repI;
 	}
@@ -327,9 +424,11 @@ public class Graph {
 	 * @return	false if node already present.
 	 */
 	public boolean add(String n) {
+		this.checkMutable();
 		if (graph.containsKey(n)) return false;
 		HashMap<RType, HashMap<String, HashSet<Edge>>> template = getInnerMapTemplate();
 		graph.put(n, template);
+		this.degrees.put(n, new int[1]);
 		return true;
 	}
 
@@ -339,6 +438,7 @@ public class Graph {
 	 * @return
 	 */
 	public Set<Edge> remove(String a) {
+		this.checkMutable();
 		if (!this.contains(a)) return null;
 
 		Set<Edge> incident = this.incident(a);
@@ -361,6 +461,7 @@ public class Graph {
 
 		// remove node and its perspective on the adjacent edges
 		HashMap<RType, HashMap<String, HashSet<Edge>>> rem = this.graph.remove(a);
+		this.degrees.remove(a);
 
 		return incident;
 	}
@@ -371,6 +472,7 @@ public class Graph {
 	 * @return	the removed edge, or null
 	 */
 	public Edge remove(Edge e) {
+		this.checkMutable();
 		if (!this.contains(e.i) || !this.contains(e.j)) 
 			return null;
 
@@ -381,19 +483,54 @@ public class Graph {
 		// but not undirected self-loops.)
 		int found = 0;
 		for (RType type : RType.values()) {
-			boolean rem = this.get(e.i, type).containsKey(e.j) && this.get(e.i, type).get(e.j).remove(e);
+			boolean rem = removeFrom(e.i, type, e.j, e);
 			if (rem) found+=1;
 
-			boolean rem2 = this.get(e.j, type).containsKey(e.i) && this.get(e.j, type).get(e.i).remove(e);			
+			boolean rem2 = removeFrom(e.j, type, e.i, e);
 			if (rem2) found +=1;		
 
 			if (found == 2 || (found==1 && !e.isDirected() && e.isSelfLoop())) {
+				this.edgeSet.remove(e);
 				return e;
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Removes an edge from a's map for b, dropping b's entry 
+	 * entirely once no edges are left, so that the keys of each inner 
+	 * map are exactly the neighbors.
+	 * @return	true if removed
+	 */
+	private boolean removeFrom(String a, RType type, String b, Edge e) {
+		HashMap<String, HashSet<Edge>> edgeMap = this.get(a, type);
+		HashSet<Edge> edges = edgeMap.get(b);
+		if (edges == null || !edges.remove(e)) return false;
+		if (edges.isEmpty()) {
+			edgeMap.remove(b);
+			this.linked(a, b, -1);
+		}
+		return true;
+	}
+
+	/**
+	 * Updates a's degree after b was added to (change=1) or dropped from 
+	 * (change=-1) one of a's inner maps: b is a new neighbor if it's now 
+	 * in exactly one of them, and gone if it's in none.
+	 */
+	private void linked(String a, String b, int change) {
+		if (a.equals(b)) return;
+		HashMap<RType, HashMap<String, HashSet<Edge>>> inner = this.graph.get(a);
+		int in = 0;
+		for (HashMap<String, HashSet<Edge>> map : inner.values()) {
+			if (map.containsKey(b)) in++;
+		}
+		if ((change > 0 && in == 1) || (change < 0 && in == 0)) {
+			this.degrees.get(a)[0] += change;
+		}
+	}
+
 	/**
 	 * Creates a graph from an edge library.
 	 * 
@@ -445,7 +582,8 @@ public class Graph {
 	}
 
 	/**
-	 * Shorthand
+	 * Shorthand. The returned map belongs to the graph: 
+	 * don't modify it unless the graph is mutable.
 	 * @param a
 	 * @return
 	 */
@@ -505,4 +643,39 @@ public class Graph {
 		return this.graphNeighborStructure();
 	}
 
+	/**
+	 * Flattens a node's per-neighbor edge sets into a single iterable
+	 * without copying.
+	 */
+	private static class IncidentView implements Iterable<Edge> {
+		private final Collection<HashSet<Edge>> sets;
+
+		IncidentView(Collection<HashSet<Edge>> sets) {
+			this.sets = sets;
+		}
+
+		public Iterator<Edge> iterator() {
+			return new Iterator<Edge>() {
+				private final Iterator<HashSet<Edge>> outer = sets.iterator();
+				private Iterator<Edge> inner = Collections.<Edge>emptySet().iterator();
+
+				public boolean hasNext() {
+					while (!inner.hasNext() && outer.hasNext()) {
+						inner = outer.next().iterator();
+					}
+					return inner.hasNext();
+				}
+
+				public Edge next() {
+					if (!hasNext()) throw new NoSuchElementException();
+					return inner.next();
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
 }
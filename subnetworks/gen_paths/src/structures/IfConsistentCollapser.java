@@ -104,7 +104,8 @@ public class IfConsistentCollapser implements EdgeCollapser {
 			for (Edge ec : connect) {
 				
 				
-				String prefix = ec.key.substring(0, ec.key.lastIndexOf("."));
+				String key = ec.toString();
+				String prefix = key.substring(0, key.lastIndexOf("."));
 				if (!collapse.containsKey(prefix)) {
 					collapse.put(prefix, new HashMap<Sign, Edge>());
 				}
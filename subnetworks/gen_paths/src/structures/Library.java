@@ -62,7 +62,10 @@ public abstract class Library<T> {
 		for (Entry<T, Value> entry : values.entrySet()) {
 			T item=entry.getKey();
 			Value val = entry.getValue();
-			if (!featMap.containsKey(item)) featMap.put(item, new HashMap<Feature, Value>());
+			if (!featMap.containsKey(item)) {
+				featMap.put(item, new HashMap<Feature, Value>());
+				this.itemsChanged();
+			}
 
 			// I think this would only happen if the features list got out of sync 
 			assert(!hasFeature(item,feature)) : "Duplicate feature value."; 
@@ -97,6 +100,13 @@ public abstract class Library<T> {
 	 * @return
 	 */
 	protected abstract String getContentType();
+	
+	/**
+	 * Called when an item is added or removed, for subclasses
+	 * that keep their own index of the items.
+	 */
+	protected void itemsChanged() {
+	}
 
 	/**
 	 * Summarize the features in the library.
@@ -307,6 +317,7 @@ public abstract class Library<T> {
 		if (!this.contains(item)) return false;
 			
 		HashMap<Feature,Value> feats = this.featMap.remove(item);
+		this.itemsChanged();
 		for (Entry<Feature,Value> entry : feats.entrySet()) {
 			if (this.backMap.containsKey(entry.getKey()) 
 					&& this.backMap.get(entry.getKey()).containsKey(entry.getValue())) {
@@ -410,6 +421,7 @@ public abstract class Library<T> {
 
 		if (!this.contains(item)) {
 			this.featMap.put(item, new HashMap<Feature, Value>());
+			this.itemsChanged();
 		}
 		// overwrites!
 		Value add = this.featMap.get(item).put(f, val);
@@ -0,0 +1,726 @@
+package structures;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import utilities.Enums.Sign;
+
+/**
+ * A binary snapshot of the background network: the filtered graph,
+ * the edge library, and the node features that the graph filters used.
+ *
+ * Every module run reads the same (large) edge files and filters them
+ * the same way, so the first run writes the result to disk and later
+ * runs memory-map it instead of parsing the text files again.
+ *
+ * The graph is stored in CompactGraph's row layout, and the loaded graph
+ * reads its rows straight from the mapped file. The edges themselves, the
+ * edge library and the node features are still decoded onto the heap.
+ *
+ * The snapshot records the config lines it was built from (see
+ * backgroundLines) and the length, modification time and CRC32 checksum
+ * of every file those lines refer to. A file whose length and modification
+ * time match is taken as unchanged; otherwise its checksum decides.
+ * If any of them has changed, the snapshot is stale and load(...) refuses it.
+ *
+ * Config line:
+ * SNAPSHOT	filename
+ */
+public class NetworkSnapshot {
+
+	public static final String MAGIC="GEN_PATHS_SNAPSHOT";
+
+	/*
+	 * Bump this whenever the file layout changes.
+	 */
+	public static final int VERSION=2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/*
+	 * Config line types that define the background network directly.
+	 */
+	private static final HashSet<String> BACKGROUND = new HashSet<String>(Arrays.asList(
+			Configuration.EDGE_FEATURE, Configuration.EDGE_LIBRARY, Configuration.COLLAPSER,
+			Configuration.EDGE_OVERRIDE, Configuration.FILTER_GRAPH));
+
+	/*
+	 * Filter manager and filter line types. FILTER_GRAPH pulls these in by name.
+	 */
+	private static final HashSet<String> MANAGERS = new HashSet<String>(Arrays.asList(
+			Configuration.NODE_FILTER_MAN, Configuration.G_FILTER_MAN, Configuration.EDGE_FILTER_MAN));
+	private static final HashSet<String> FILTERS = new HashSet<String>(Arrays.asList(
+			Configuration.NODE_FILTER, Configuration.GRAPH_FILTER, Configuration.EDGE_FILTER));
+
+	private final String filename;
+	private final boolean clean;
+	private final CompactGraph graph;
+	private final EdgeLibrary edgeLibe;
+
+	/*
+	 * Node features, by the NFEATURE config line that declared them.
+	 */
+	private final HashMap<String, Pair<Feature, Map<String, Value>>> nodeFeats;
+
+	private NetworkSnapshot(String filename, boolean clean, CompactGraph graph, EdgeLibrary edgeLibe,
+			HashMap<String, Pair<Feature, Map<String, Value>>> nodeFeats) {
+		this.filename=filename;
+		this.clean=clean;
+		this.graph=graph;
+		this.edgeLibe=edgeLibe;
+		this.nodeFeats=nodeFeats;
+	}
+
+	public String filename() {
+		return this.filename;
+	}
+
+	/**
+	 * True if the graph had self-loops and edgeless nodes removed
+	 * (see Configuration.buildGraph(boolean)).
+	 * @return
+	 */
+	public boolean isClean() {
+		return this.clean;
+	}
+
+	public CompactGraph graph() {
+		return this.graph;
+	}
+
+	public EdgeLibrary edgeLibrary() {
+		return this.edgeLibe;
+	}
+
+	/**
+	 * Gets the node feature read from the given NFEATURE line.
+	 * @param line
+	 * @return	the feature and its values, or null if it isn't in the snapshot
+	 */
+	public Pair<Feature, Map<String, Value>> nodeFeature(String line) {
+		return this.nodeFeats.get(line);
+	}
+
+	/**
+	 * Picks out the config lines that the background network depends on:
+	 * edge feature declarations, edge libraries, the collapser,
+	 * the edge override, and FILTER_GRAPH, along with the filter managers
+	 * and filters that FILTER_GRAPH uses and the node features those filters read.
+	 *
+	 * Returns null if the config maps nodes (NODE_MAP), because that rewrites
+	 * the node library as well and can't be replayed from a snapshot.
+	 *
+	 * @param lines	config lines, without comments or blank lines
+	 * @return	the lines, in config order
+	 */
+	public static ArrayList<String> backgroundLines(List<String> lines) {
+		HashSet<String> managers = new HashSet<String>();
+		for (String line : lines) {
+			String[] sp = line.split(Configuration.FIELD_DELIM);
+			if (sp[0].equals(Configuration.NODE_MAP)) {
+				return null;
+			}
+			if (sp[0].equals(Configuration.FILTER_GRAPH) && sp.length > 1) {
+				managers.addAll(Arrays.asList(sp[1].split(Configuration.VAL_DELIM)));
+			}
+		}
+
+		HashSet<String> filters = new HashSet<String>();
+		for (String line : lines) {
+			String[] sp = line.split(Configuration.FIELD_DELIM);
+			if (MANAGERS.contains(sp[0]) && sp.length > 4 && managers.contains(sp[1])) {
+				filters.addAll(Arrays.asList(sp[4].split(Configuration.VAL_DELIM)));
+			}
+		}
+
+		HashSet<String> nodeFeats = new HashSet<String>();
+		for (String line : lines) {
+			String[] sp = line.split(Configuration.FIELD_DELIM);
+			if (sp[0].equals(Configuration.NODE_FILTER) && sp.length > 3 && filters.contains(sp[1])) {
+				nodeFeats.add(sp[3]);
+			}
+		}
+
+		ArrayList<String> background = new ArrayList<String>();
+		for (String line : lines) {
+			String[] sp = line.split(Configuration.FIELD_DELIM);
+			boolean keep = BACKGROUND.contains(sp[0])
+					|| (MANAGERS.contains(sp[0]) && sp.length > 1 && managers.contains(sp[1]))
+					|| (FILTERS.contains(sp[0]) && sp.length > 1 && filters.contains(sp[1]))
+					|| (sp[0].equals(Configuration.NODE_FEATURE) && sp.length > 2
+							&& nodeFeats.contains(sp[1].split("=")[0]));
+			if (keep) {
+				background.add(line);
+			}
+		}
+		return background;
+	}
+
+	/**
+	 * Gets the files that the config lines refer to: any field
+	 * (after the first) that names an existing file.
+	 * @param lines
+	 * @return
+	 */
+	private static ArrayList<String> sourceFiles(List<String> lines) {
+		ArrayList<String> files = new ArrayList<String>();
+		for (String line : lines) {
+			String[] sp = line.split(Configuration.FIELD_DELIM);
+			for (int i = 1; i < sp.length; i++) {
+				if (new File(sp[i]).isFile() && !files.contains(sp[i])) {
+					files.add(sp[i]);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Computes the CRC32 checksum of a file's contents.
+	 * @param fn
+	 * @return
+	 * @throws IOException
+	 */
+	private static long checksum(String fn) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(fn);
+		try {
+			byte[] buf = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				crc.update(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Memory-maps and reads a snapshot, if it is still current.
+	 *
+	 * @param fn	snapshot file
+	 * @param sources	the background lines of the current config
+	 * @return	the snapshot, or null if it was made from different config lines
+	 * 	or different file contents (or by a different version of this code)
+	 * @throws IOException	if the file can't be read, or its body is truncated or corrupt
+	 */
+	public static NetworkSnapshot load(String fn, List<String> sources) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(fn, "r");
+		MappedByteBuffer buf;
+		try {
+			FileChannel ch = raf.getChannel();
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			raf.close();
+		}
+
+		String stale;
+		try {
+			stale = checkHeader(buf, sources);
+		} catch (BufferUnderflowException bue) {
+			stale = "truncated file";
+		} catch (IllegalArgumentException iae) {
+			stale = "unreadable file";
+		}
+		if (stale != null) {
+			System.out.format("Snapshot %s is out of date (%s); reading the network from its source files.\n",
+					fn, stale);
+			return null;
+		}
+		try {
+			return readBody(fn, buf);
+		} catch (BufferUnderflowException bue) {
+			throw new IOException("Snapshot file is truncated: " + fn, bue);
+		} catch (RuntimeException re) {
+			// bad counts or ids: negative sizes, out-of-range indexes, unknown types
+			throw new IOException("Snapshot file is corrupt: " + fn, re);
+		}
+	}
+
+	/**
+	 * Reads and checks the header.
+	 * @return	null if the snapshot is current, otherwise the reason why not.
+	 */
+	private static String checkHeader(ByteBuffer buf, List<String> sources) throws IOException {
+		if (buf.remaining() < 4 || !MAGIC.equals(readString(buf))) {
+			return "not a snapshot file";
+		}
+		int version = buf.getInt();
+		if (version != VERSION) {
+			return String.format("version %d, expected %d", version, VERSION);
+		}
+
+		int nLines = buf.getInt();
+		ArrayList<String> lines = new ArrayList<String>(nLines);
+		for (int k = 0; k < nLines; k++) {
+			lines.add(readString(buf));
+		}
+		if (!lines.equals(sources)) {
+			return "config lines changed";
+		}
+
+		int nFiles = buf.getInt();
+		for (int k = 0; k < nFiles; k++) {
+			String file = readString(buf);
+			long length = buf.getLong(), modified = buf.getLong(), crc = buf.getLong();
+			File f = new File(file);
+			if (!f.isFile() || f.length() != length) {
+				return "file changed: " + file;
+			}
+			// only read the file if it has been touched since
+			if (f.lastModified() != modified && checksum(file) != crc) {
+				return "file changed: " + file;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads everything after the header.
+	 */
+	private static NetworkSnapshot readBody(String fn, ByteBuffer buf) {
+		boolean clean = buf.get() != 0;
+
+		String[] strings = new String[buf.getInt()];
+		for (int k = 0; k < strings.length; k++) {
+			strings[k] = readString(buf);
+		}
+
+		String[] nodes = new String[buf.getInt()];
+		for (int k = 0; k < nodes.length; k++) {
+			nodes[k] = Node.makeNode(readString(buf));
+		}
+
+		// features and their value dictionaries
+		Feature[] features = new Feature[buf.getInt()];
+		Value[][] dicts = new Value[features.length][];
+		for (int f = 0; f < features.length; f++) {
+			String name = readString(buf);
+			Value.Type type = Value.Type.valueOf(readString(buf));
+			Value[] vals = new Value[buf.getInt()];
+			for (int k = 0; k < vals.length; k++) {
+				// declared values of set features are discrete
+				vals[k] = makeValue(type == Value.Type.SET ? Value.Type.DISCRETE : type, readString(buf));
+			}
+			String note = readString(buf), source = readString(buf);
+			features[f] = new Feature(name, type, vals, note, source);
+
+			dicts[f] = new Value[buf.getInt()];
+			for (int k = 0; k < dicts[f].length; k++) {
+				dicts[f][k] = makeValue(type, readString(buf));
+			}
+		}
+
+		// edge library
+		EdgeLibrary el = new EdgeLibrary();
+		for (Feature f : features) {
+			if (buf.get() != 0) el.addFeature(f);
+		}
+		el.filenames = new ArrayList<String>();
+		for (int k = buf.getInt(); k > 0; k--) {
+			el.filenames.add(strings[buf.getInt()]);
+		}
+		int nUnbound = buf.getInt();
+		if (nUnbound >= 0) {
+			el.unboundFeatNames = new HashSet<String>();
+			for (int k = 0; k < nUnbound; k++) {
+				el.unboundFeatNames.add(strings[buf.getInt()]);
+			}
+		}
+
+		Sign[] signs = Sign.values();
+		Edge[] edges = new Edge[buf.getInt()];
+		int inLibrary = buf.getInt();
+		for (int k = 0; k < edges.length; k++) {
+			String i = nodes[buf.getInt()], j = nodes[buf.getInt()];
+			boolean directed = buf.get() != 0;
+			Edge e = new Edge(i, j, directed, signs[buf.get()]);
+			edges[k] = e;
+			if (k >= inLibrary) continue;
+
+			HashMap<Feature, Value> feats = new HashMap<Feature, Value>();
+			for (int m = buf.getInt(); m > 0; m--) {
+				int f = buf.getInt();
+				feats.put(features[f], dicts[f][buf.getInt()]);
+			}
+			el.addValues(e, feats);
+
+			int nFns = buf.getInt();
+			if (nFns >= 0) {
+				ArrayList<String> fns = new ArrayList<String>(nFns);
+				for (int m = 0; m < nFns; m++) {
+					fns.add(strings[buf.getInt()]);
+				}
+				el.edgeFns.put(e, fns);
+			}
+
+			int nUb = buf.getInt();
+			if (nUb >= 0) {
+				HashMap<String, String> ub = new HashMap<String, String>();
+				for (int m = 0; m < nUb; m++) {
+					String key = strings[buf.getInt()];
+					ub.put(key, strings[buf.getInt()]);
+				}
+				el.unboundFeats.put(e, ub);
+			}
+		}
+
+		// node features
+		HashMap<String, Pair<Feature, Map<String, Value>>> nodeFeats =
+				new HashMap<String, Pair<Feature, Map<String, Value>>>();
+		for (int k = buf.getInt(); k > 0; k--) {
+			String line = strings[buf.getInt()];
+			int f = buf.getInt();
+			HashMap<String, Value> values = new HashMap<String, Value>();
+			for (int m = buf.getInt(); m > 0; m--) {
+				String node = nodes[buf.getInt()];
+				values.put(node, dicts[f][buf.getInt()]);
+			}
+			nodeFeats.put(line, new Pair<Feature, Map<String, Value>>(features[f], values));
+		}
+
+		// graph: names, node order and edge table, then the rows in place
+		String[] names = new String[buf.getInt()];
+		for (int u = 0; u < names.length; u++) {
+			names[u] = nodes[buf.getInt()];
+		}
+		IntBuffer order = ints(buf, names.length);
+		Edge[] table = new Edge[buf.getInt()];
+		for (int k = 0; k < table.length; k++) {
+			table[k] = edges[buf.getInt()];
+		}
+		align(buf);
+		int nTypes = Graph.RType.values().length;
+		IntBuffer[] offsets = new IntBuffer[nTypes], targets = new IntBuffer[nTypes], rows = new IntBuffer[nTypes];
+		for (int t = 0; t < nTypes; t++) {
+			offsets[t] = ints(buf, names.length + 1);
+			int len = offsets[t].get(names.length);
+			targets[t] = ints(buf, len);
+			rows[t] = ints(buf, len);
+		}
+		IntBuffer[] degrees = new IntBuffer[CompactGraph.TOTAL + 1];
+		for (int t = 0; t < degrees.length; t++) {
+			degrees[t] = ints(buf, names.length);
+		}
+		CompactGraph g = new CompactGraph(names, order, table, offsets, targets, rows, degrees);
+
+		return new NetworkSnapshot(fn, clean, g, el, nodeFeats);
+	}
+
+	/**
+	 * Writes a snapshot. Writes to a temporary file first and then
+	 * renames it, so a failed write never leaves a broken snapshot behind.
+	 *
+	 * @param fn	snapshot file
+	 * @param sources	the config lines the network was built from (see backgroundLines)
+	 * @param clean	true if self-loops and edgeless nodes were removed from the graph
+	 * @param g	the filtered graph (stored as a CompactGraph)
+	 * @param el	the edge library
+	 * @param nodeFeats	node features, keyed by the NFEATURE lines in sources that declared them
+	 * @throws IOException
+	 */
+	public static void write(String fn, List<String> sources, boolean clean, Graph g, EdgeLibrary el,
+			Map<String, Pair<Feature, Map<String, Value>>> nodeFeats) throws IOException {
+		CompactGraph cg = g instanceof CompactGraph ? (CompactGraph) g : new CompactGraph(g);
+
+		// number everything first
+		Index<String> strings = new Index<String>();
+		Index<String> nodes = new Index<String>();
+		Index<Feature> features = new Index<Feature>();
+		ArrayList<Index<Value>> dicts = new ArrayList<Index<Value>>();
+
+		for (Feature f : el.features()) {
+			features.id(f);
+		}
+		ArrayList<Edge> edges = new ArrayList<Edge>(el.items());
+		int inLibrary = edges.size();
+		for (Edge e : g.edges()) {
+			if (!el.contains(e)) edges.add(e);
+		}
+		for (Edge e : edges) {
+			nodes.id(e.i());
+			nodes.id(e.j());
+		}
+		for (String n : g.nodes()) {
+			nodes.id(n);
+		}
+		for (Pair<Feature, Map<String, Value>> pair : nodeFeats.values()) {
+			features.id(pair.first());
+			for (String n : pair.second().keySet()) {
+				nodes.id(n);
+			}
+		}
+		for (Feature f : features.items) {
+			if (f.type() == Value.Type.ORDINAL) {
+				throw new IOException(String.format("Can't write ordinal feature %s to a snapshot.", f.name()));
+			}
+			dicts.add(new Index<Value>());
+		}
+
+		// a temporary file of our own, so runs writing at the same time don't collide
+		File dest = new File(fn).getAbsoluteFile();
+		File tmp = Files.createTempFile(dest.getParentFile().toPath(), dest.getName() + ".", ".tmp").toFile();
+		boolean written = false;
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			// header
+			writeString(out, MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(sources.size());
+			for (String line : sources) {
+				writeString(out, line);
+			}
+			ArrayList<String> files = sourceFiles(sources);
+			out.writeInt(files.size());
+			for (String file : files) {
+				writeString(out, file);
+				out.writeLong(new File(file).length());
+				out.writeLong(new File(file).lastModified());
+				out.writeLong(checksum(file));
+			}
+			out.writeByte(clean ? 1 : 0);
+
+			// the body refers to strings and values by number, so lay out the
+			// edge records first and then write the tables ahead of them.
+			ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+			DataOutputStream body = new DataOutputStream(bodyBytes);
+
+			for (Feature f : features.items) {
+				body.writeByte(el.hasFeature(f) ? 1 : 0);
+			}
+			body.writeInt(el.filenames.size());
+			for (String s : el.filenames) {
+				body.writeInt(strings.id(s));
+			}
+			if (el.unboundFeatNames == null) {
+				body.writeInt(-1);
+			} else {
+				body.writeInt(el.unboundFeatNames.size());
+				for (String s : el.unboundFeatNames) {
+					body.writeInt(strings.id(s));
+				}
+			}
+
+			body.writeInt(edges.size());
+			body.writeInt(inLibrary);
+			for (int k = 0; k < edges.size(); k++) {
+				Edge e = edges.get(k);
+				body.writeInt(nodes.id(e.i()));
+				body.writeInt(nodes.id(e.j()));
+				body.writeByte(e.isDirected() ? 1 : 0);
+				body.writeByte(e.sign().ordinal());
+				if (k >= inLibrary) continue;
+
+				Map<Feature, Value> feats = el.getFeatures(e);
+				body.writeInt(feats.size());
+				for (Entry<Feature, Value> entry : feats.entrySet()) {
+					int f = features.id(entry.getKey());
+					body.writeInt(f);
+					body.writeInt(dicts.get(f).id(entry.getValue()));
+				}
+
+				ArrayList<String> fns = el.edgeFns.get(e);
+				if (fns == null) {
+					body.writeInt(-1);
+				} else {
+					body.writeInt(fns.size());
+					for (String s : fns) {
+						body.writeInt(strings.id(s));
+					}
+				}
+
+				HashMap<String, String> ub = el.unboundFeats == null ? null : el.unboundFeats.get(e);
+				if (ub == null) {
+					body.writeInt(-1);
+				} else {
+					body.writeInt(ub.size());
+					for (Entry<String, String> entry : ub.entrySet()) {
+						body.writeInt(strings.id(entry.getKey()));
+						body.writeInt(strings.id(entry.getValue()));
+					}
+				}
+			}
+
+			body.writeInt(nodeFeats.size());
+			for (Entry<String, Pair<Feature, Map<String, Value>>> entry : nodeFeats.entrySet()) {
+				int f = features.id(entry.getValue().first());
+				body.writeInt(strings.id(entry.getKey()));
+				body.writeInt(f);
+				body.writeInt(entry.getValue().second().size());
+				for (Entry<String, Value> val : entry.getValue().second().entrySet()) {
+					body.writeInt(nodes.id(val.getKey()));
+					body.writeInt(dicts.get(f).id(val.getValue()));
+				}
+			}
+			body.flush();
+
+			// tables
+			out.writeInt(strings.items.size());
+			for (String s : strings.items) {
+				writeString(out, s);
+			}
+			out.writeInt(nodes.items.size());
+			for (String s : nodes.items) {
+				writeString(out, s);
+			}
+			out.writeInt(features.items.size());
+			for (int f = 0; f < features.items.size(); f++) {
+				Feature feat = features.items.get(f);
+				writeString(out, feat.name());
+				writeString(out, feat.type().name());
+				out.writeInt(feat.values().length);
+				for (Value v : feat.values()) {
+					writeString(out, v.toString());
+				}
+				writeString(out, feat.note() == null ? "" : feat.note());
+				writeString(out, feat.source() == null ? "" : feat.source());
+				out.writeInt(dicts.get(f).items.size());
+				for (Value v : dicts.get(f).items) {
+					writeString(out, v.toString());
+				}
+			}
+
+			bodyBytes.writeTo(out);
+
+			// graph
+			HashMap<Edge, Integer> edgeIds = new HashMap<Edge, Integer>();
+			for (int k = 0; k < edges.size(); k++) {
+				edgeIds.put(edges.get(k), k);
+			}
+			out.writeInt(cg.names.length);
+			for (String n : cg.names) {
+				out.writeInt(nodes.id(n));
+			}
+			writeInts(out, cg.order);
+			out.writeInt(cg.edgeTable.length);
+			for (Edge e : cg.edgeTable) {
+				out.writeInt(edgeIds.get(e));
+			}
+			// pad, so that the rows are aligned ints in the mapped file
+			while (out.size() % 4 != 0) {
+				out.writeByte(0);
+			}
+			for (int t = 0; t < cg.offsets.length; t++) {
+				writeInts(out, cg.offsets[t]);
+				writeInts(out, cg.targets[t]);
+				writeInts(out, cg.rows[t]);
+			}
+			for (IntBuffer deg : cg.degrees) {
+				writeInts(out, deg);
+			}
+			out.close();
+			out = null;
+
+			try {
+				Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException amns) {
+				Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			// temporary files are created private, but other runs may read the snapshot
+			dest.setReadable(true, false);
+			written = true;
+		} finally {
+			if (out != null) out.close();
+			if (!written) tmp.delete();
+		}
+	}
+
+	/**
+	 * Rebuilds a value from its string form.
+	 */
+	private static Value makeValue(Value.Type type, String s) {
+		switch (type) {
+		case CONTINUOUS:
+			return Continuous.makeValue(s);
+		case SET:
+			ArrayList<Discrete> vals = new ArrayList<Discrete>();
+			for (String v : s.split(Feature.DELIM)) {
+				vals.add(Discrete.makeValue(v));
+			}
+			return CatSet.makeValue(vals);
+		default:
+			return Discrete.makeValue(s);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer ints) throws IOException {
+		for (int k = 0; k < ints.limit(); k++) {
+			out.writeInt(ints.get(k));
+		}
+	}
+
+	/**
+	 * Takes the next count ints of the buffer as an IntBuffer,
+	 * without copying them.
+	 */
+	private static IntBuffer ints(ByteBuffer buf, int count) {
+		ByteBuffer slice = buf.slice();
+		slice.limit(count * 4);
+		buf.position(buf.position() + count * 4);
+		return slice.asIntBuffer();
+	}
+
+	/**
+	 * Skips the padding that write(...) put before the rows.
+	 */
+	private static void align(ByteBuffer buf) {
+		buf.position((buf.position() + 3) & ~3);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Numbers items in the order they are first seen.
+	 */
+	private static class Index<T> {
+		final ArrayList<T> items = new ArrayList<T>();
+		final HashMap<T, Integer> ids = new HashMap<T, Integer>();
+
+		int id(T item) {
+			Integer id = this.ids.get(item);
+			if (id == null) {
+				id = this.items.size();
+				this.items.add(item);
+				this.ids.put(item, id);
+			}
+			return id;
+		}
+	}
+}
@@ -1,24 +1,107 @@
 package structures;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * We represent nodes just using strings, but this class
  * allows us to keep track of only one instance of each unique string.
- * 
+ *
+ * It's a symbol table: every node string gets a dense integer ID,
+ * and we can go from name to ID and back in constant time. It's safe
+ * to use from several threads at once, so files can be parsed in parallel.
+ *
  * @author chasman
  *
  */
 public class Node {
-	private static final HashMap<String, String> nodes=new HashMap<String,String>();
+
+	/*
+	 * Raw string (as read from a file) -> normalized node name,
+	 * so we only uppercase and trim each distinct spelling once.
+	 */
+	private static final ConcurrentHashMap<String, String> aliases=
+			new ConcurrentHashMap<String, String>();
+
+	/*
+	 * Node name -> ID. IDs are handed out in order of first use.
+	 */
+	private static final ConcurrentHashMap<String, Integer> ids=
+			new ConcurrentHashMap<String, Integer>();
+
+	/*
+	 * ID -> node name. Only grows under the lock; we write the new name
+	 * before publishing its ID, so anyone who has an ID can read its name
+	 * without locking.
+	 */
+	private static volatile String[] names=new String[1024];
+	private static int size=0;
+	private static final Object lock=new Object();
+
 	private Node() {
 	}
-	
+
+	/**
+	 * Normalizes a node name (uppercase, trimmed) and returns the
+	 * single shared instance of it.
+	 * @param node
+	 * @return
+	 */
 	public static String makeNode(String node) {
-		node=node.toUpperCase().trim(); // uggggggh
-		if (!Node.nodes.containsKey(node)) 
-			nodes.put(node, node);
-		return Node.nodes.get(node);
+		String name = aliases.get(node);
+		if (name == null) {
+			name = Node.name(Node.id(node.toUpperCase().trim()));
+			aliases.putIfAbsent(node, name);
+		}
+		return name;
+	}
+
+	/**
+	 * Gets the integer ID for a node, giving it a new one if
+	 * we haven't seen it before. (Exact string - doesn't normalize
+	 * like makeNode does.)
+	 * @param node
+	 * @return
+	 */
+	public static int id(String node) {
+		Integer id = ids.get(node);
+		if (id != null) return id;
+
+		synchronized (lock) {
+			id = ids.get(node);
+			if (id == null) {
+				id = size;
+				String[] arr = names;
+				if (id == arr.length) {
+					String[] grown = new String[2 * arr.length];
+					System.arraycopy(arr, 0, grown, 0, arr.length);
+					arr = grown;
+				}
+				arr[id] = node;
+				names = arr;
+				size++;
+				ids.put(node, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Gets the node with the given ID.
+	 * @param id
+	 * @return
+	 */
+	public static String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Number of distinct nodes we've seen so far.
+	 * @return
+	 */
+	public static int count() {
+		synchronized (lock) {
+			return size;
+		}
 	}
 
 }
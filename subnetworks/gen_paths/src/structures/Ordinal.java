@@ -1,9 +1,9 @@
 package structures;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Ordinal extends Value {
-	private static HashMap<Pair<String, Integer>, Ordinal> created=new HashMap<Pair<String,Integer>, Ordinal>();
+	private static ConcurrentHashMap<Pair<String, Integer>, Ordinal> created=new ConcurrentHashMap<Pair<String,Integer>, Ordinal>();
 	
 	private final String value;
 	private final int ord;
@@ -42,8 +42,7 @@ class Ordinal extends Value {
 	public static Value makeValue(String val, int i) {
 		Pair<String, Integer> input = new Pair<String,Integer>(val,i);
 		if (!created.containsKey(input)) {
-			Ordinal ord = new Ordinal(val, i);
-			created.put(input, ord);
+			created.putIfAbsent(input, new Ordinal(val, i));
 		}
 		return created.get(input);		
 	}
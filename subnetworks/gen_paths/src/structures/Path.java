@@ -1,11 +1,14 @@
 package structures;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import utilities.Enums.Sign;
+
 /**
  * Stores an path in the network.
  * 
@@ -29,13 +32,27 @@ public class Path {
 	}
 	
 	/*
-	 * Ordered nodes and edges.
+	 * Ordered nodes and edges. For a path made by copyAdd, these
+	 * are only filled in when someone asks for them (see nodeList()).
 	 */
-	protected final ArrayList<String> nodes;
-	protected final ArrayList<Edge> edges;	
+	protected ArrayList<String> nodes;
+	protected ArrayList<Edge> edges;	
 	protected String toString;
 	protected HashSet<String> termini;
 	
+	/*
+	 * A path made by copyAdd just points to the path it extends 
+	 * (its prefix) and holds the one new edge and node, so extending a 
+	 * path takes constant time and memory, and paths with the same 
+	 * prefix share it. prefix is null for paths made from lists.
+	 */
+	private final Path prefix;
+	private final Edge lastEdge;
+	private final String lastNode;
+	private final int length;
+	// sign of a path made by copyAdd, as a value (see Sign)
+	private final int sign;
+	
 	/**
 	 * Constructs an empty path.
 	 * 
@@ -44,6 +61,11 @@ public class Path {
 		this.nodes = new ArrayList<String>();
 		this.edges = new ArrayList<Edge>();
 		this.termini = new HashSet<String>();
+		this.prefix = null;
+		this.lastEdge = null;
+		this.lastNode = null;
+		this.length = 0;
+		this.sign = 0;
 		//this.toString = this.buildString();
 	}
 	
@@ -52,11 +74,8 @@ public class Path {
 	 * @param node
 	 */
 	public Path(String node) {
-		this.nodes = new ArrayList<String>();
-		this.edges = new ArrayList<Edge>();
+		this();
 		this.nodes.add(node);
-		this.toString = this.buildString();
-		this.termini = new HashSet<String>();
 		this.termini.add(node);
 	}
 	
@@ -65,8 +84,22 @@ public class Path {
 		this.edges=edges;
 		this.termini=new HashSet<String>();
 		termini.add(nodes.get(nodes.size()-1));
-		
-		this.toString = this.buildString();		
+		this.prefix = null;
+		this.lastEdge = null;
+		this.lastNode = null;
+		this.length = 0;
+		this.sign = 0;
+	}
+	
+	/**
+	 * Extends a path by one edge, sharing the prefix.
+	 */
+	private Path(Path prefix, Edge e, String node) {
+		this.prefix = prefix;
+		this.lastEdge = e;
+		this.lastNode = node;
+		this.length = prefix.edgeLength() + 1;
+		this.sign = prefix.sign().value() * e.sign().value();
 	}
 	
 	/**
@@ -76,10 +109,12 @@ public class Path {
 	 * Assertion error if path is empty - the programmer should never be
 	 * adding an edge to an empty path because the order of the nodes is then
 	 * ambiguous.
+	 * 
+	 * The new path shares this one rather than copying it. 
 	 * @param e
 	 */
 	public Path copyAdd(Edge e) {
-		assert(this.nodes.size() > 0):
+		assert(this.prefix != null || this.nodes.size() > 0):
 			"Trying to add an edge to an empty path. Don't do it.";
 		
 		// contiguity? one node must be the last one.
@@ -113,16 +148,84 @@ public class Path {
 			"Trying to an an empty node to a path.";
 			
 		// acyclicity? the second node cannot be already in the path.
-		if (this.nodes.contains(second)) {
+		if (this.containsNode(second)) {
 			return null;
 		}
 			
-		ArrayList<String> newN = new ArrayList<String>(this.nodes());
-		ArrayList<Edge> newE = new ArrayList<Edge>(this.edges());
-		
-		newN.add(second);
-		newE.add(e);
-		return new Path(newN, newE);
+		return new Path(this, e, second);
+	}
+	
+	/**
+	 * Is the node in the (linear part of the) path? 
+	 * Walks back along the prefixes, so nothing is copied.
+	 */
+	private boolean containsNode(String node) {
+		Path p = this;
+		while (p.prefix != null) {
+			if (p.lastNode.equals(node)) return true;
+			p = p.prefix;
+		}
+		return p.nodes.contains(node);
+	}
+	
+	/**
+	 * The ordered nodes, built from the prefixes the first time they're needed.
+	 * @return
+	 */
+	protected ArrayList<String> nodeList() {
+		if (this.nodes == null) {
+			ArrayList<String> list = new ArrayList<String>(this.length+1);
+			this.collect(list, null);
+			this.nodes = list;
+		}
+		return this.nodes;
+	}
+	
+	/**
+	 * The ordered edges, built from the prefixes the first time they're needed.
+	 * @return
+	 */
+	protected ArrayList<Edge> edgeList() {
+		if (this.edges == null) {
+			ArrayList<Edge> list = new ArrayList<Edge>(this.length);
+			this.collect(null, list);
+			this.edges = list;
+		}
+		return this.edges;
+	}
+	
+	/**
+	 * Appends this path's nodes and/or edges, in order, to the given lists. 
+	 */
+	private void collect(ArrayList<String> nodeList, ArrayList<Edge> edgeList) {
+		// walk back to the first path made from lists, 
+		// picking up the added nodes and edges (last first)
+		int added = this.length - this.first().edges.size();
+		String[] newN = new String[added];
+		Edge[] newE = new Edge[added];
+		Path p = this;
+		for (int k = added-1; k >= 0; k--) {
+			newN[k] = p.lastNode;
+			newE[k] = p.lastEdge;
+			p = p.prefix;
+		}
+		if (nodeList != null) {
+			nodeList.addAll(p.nodes);
+			nodeList.addAll(Arrays.asList(newN));
+		}
+		if (edgeList != null) {
+			edgeList.addAll(p.edges);
+			edgeList.addAll(Arrays.asList(newE));
+		}
+	}
+	
+	/**
+	 * The path made from lists that this one was extended from.
+	 */
+	private Path first() {
+		Path p = this;
+		while (p.prefix != null) p = p.prefix;
+		return p;
 	}
 	
 	/**
@@ -134,8 +237,8 @@ public class Path {
 	 * @return
 	 */
 	public PathOrder order(String a, String b) {
-		int ai = this.nodes.indexOf(a);
-		int bi = this.nodes.indexOf(b);		
+		int ai = this.nodeList().indexOf(a);
+		int bi = this.nodeList().indexOf(b);		
 		
 		// if either not present return NA
 		if (ai < 0 || bi < 0) return PathOrder.NA;
@@ -156,6 +259,14 @@ public class Path {
 	 * @return	node at position i
 	 */
 	public String getNode(int i) {
+		if (this.nodes == null) {
+			// the last few nodes are cheap to get from the prefixes
+			int back = (i < 0 ? -i : this.length+1-i) - 1;
+			Path p = this;
+			for (; back > 0 && p.prefix != null; back--) p = p.prefix;
+			if (p.prefix != null) return p.lastNode;
+			return p.getNode(p.nodes.size()-1-back);
+		}
 		// allow arraylist to take care of out-of-bounds exceptions
 		// negative index? count backwards
 		if (i < 0) {
@@ -171,6 +282,13 @@ public class Path {
 	 * @return	edge at position i
 	 */
 	public Edge getEdge(int i) {
+		if (this.edges == null) {
+			int back = (i < 0 ? -i : this.length-i) - 1;
+			Path p = this;
+			for (; back > 0 && p.prefix != null; back--) p = p.prefix;
+			if (p.prefix != null) return p.lastEdge;
+			return p.getEdge(p.edges.size()-1-back);
+		}
 		if (i < 0) {
 			return edges.get(edges.size()+i);
 		}
@@ -184,15 +302,32 @@ public class Path {
 	 * @return
 	 */
 	public int edgeLength() {
+		if (this.prefix != null) return this.length;
 		return this.edges.size();
 	}
 	
 	public List<String> nodes() {
-		return Collections.unmodifiableList(this.nodes);
+		return Collections.unmodifiableList(this.nodeList());
 	}
 	
 	public List<Edge> edges() {
-		return Collections.unmodifiableList(this.edges);
+		return Collections.unmodifiableList(this.edgeList());
+	}
+	
+	/**
+	 * The sign of the path: the product of its edges' signs.
+	 * POSITIVE if it has no edges; UNKNOWN if any edge's sign is unknown.
+	 * A path made by copyAdd keeps the running product, so this is
+	 * constant time during a search.
+	 * @return
+	 */
+	public Sign sign() {
+		if (this.prefix != null) return Sign.fromValue(this.sign);
+		int v = 1;
+		for (Edge e : this.edges) {
+			v *= e.sign().value();
+		}
+		return Sign.fromValue(v);
 	}
 	
 	/**
@@ -202,6 +337,11 @@ public class Path {
 	 * @return
 	 */
 	public Set<String> termini() {
+		if (this.termini == null) {
+			HashSet<String> term = new HashSet<String>();
+			term.add(this.lastNode);
+			this.termini = term;
+		}
 		return Collections.unmodifiableSet(this.termini);
 	}
 	
@@ -222,7 +362,7 @@ public class Path {
 	 * @return
 	 */
 	public Path copy() {
-		Path copy = new Path(new ArrayList<String>(this.nodes), new ArrayList<Edge>(this.edges));
+		Path copy = new Path(new ArrayList<String>(this.nodeList()), new ArrayList<Edge>(this.edgeList()));
 		return copy;
 	}
 	
@@ -231,11 +371,16 @@ public class Path {
 	 * -> for directed edges, -- for undirected.
 	 */
 	public String toString() {				
+		if (this.toString == null) {
+			this.toString = this.buildString();
+		}
 		return this.toString;
 	}
 	
 	protected String buildString() {
-		StringBuilder sb = new StringBuilder(this.getNode(0));
+		ArrayList<String> nodes = this.nodeList();
+		ArrayList<Edge> edges = this.edgeList();
+		StringBuilder sb = new StringBuilder(nodes.get(0));
 		// one fewer edge than nodes
 		for (int i=1; i < nodes.size(); i++) {
 			String nextN = nodes.get(i);
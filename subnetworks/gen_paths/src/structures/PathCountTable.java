@@ -0,0 +1,215 @@
+package structures;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Number of paths a pathfinder would find, by source, target and length,
+ * without keeping the paths. Each source's counts are either exact
+ * (from running the search) or estimated (from sampling the search).
+ *
+ * A BranchyPath counts once for each of its termini, since it stands
+ * in for one path per terminus.
+ */
+public class PathCountTable {
+
+	protected final String name;
+	protected final int maxLength;
+	protected final ArrayList<SourceCounts> sources = new ArrayList<SourceCounts>();
+
+	/**
+	 * @param name	name of the pathfinder
+	 * @param maxLength	longest path counted, in edges
+	 */
+	public PathCountTable(String name, int maxLength) {
+		this.name=name;
+		this.maxLength=maxLength;
+	}
+
+	public void add(SourceCounts counts) {
+		this.sources.add(counts);
+	}
+
+	public String name() {
+		return this.name;
+	}
+
+	public int maxLength() {
+		return this.maxLength;
+	}
+
+	public List<SourceCounts> sources() {
+		return Collections.unmodifiableList(this.sources);
+	}
+
+	/**
+	 * Number of paths of each length, over all sources.
+	 * @return	array indexed by length, in edges
+	 */
+	public double[] byLength() {
+		double[] tot = new double[this.maxLength+1];
+		for (SourceCounts sc : this.sources) {
+			double[] len = sc.byLength();
+			for (int i = 0; i < tot.length; i++) {
+				tot[i] += len[i];
+			}
+		}
+		return tot;
+	}
+
+	/**
+	 * Number of paths of at most the given length, over all sources:
+	 * the number a search to that depth would find.
+	 * @param depth
+	 * @return
+	 */
+	public double total(int depth) {
+		double[] len = this.byLength();
+		double tot = 0;
+		for (int i = 0; i <= depth && i < len.length; i++) {
+			tot += len[i];
+		}
+		return tot;
+	}
+
+	public double total() {
+		return this.total(this.maxLength);
+	}
+
+	/**
+	 * Number of sources whose counts are estimates.
+	 * @return
+	 */
+	public int estimated() {
+		int est = 0;
+		for (SourceCounts sc : this.sources) {
+			if (!sc.exact()) est++;
+		}
+		return est;
+	}
+
+	/**
+	 * Deepest search that would find at most the given number of paths.
+	 * @param limit
+	 * @return	depth in edges (0 if even one edge is too many)
+	 */
+	public int deepestWithin(double limit) {
+		int depth = 0;
+		while (depth < this.maxLength && this.total(depth+1) <= limit) depth++;
+		return depth;
+	}
+
+	/**
+	 * Prints one line per source, target and length with any paths:
+	 * #pathfinder	source	target	length	paths	method
+	 * @param out
+	 */
+	public void print(PrintStream out) {
+		for (SourceCounts sc : this.sources) {
+			String method = sc.exact() ? "exact" : "estimate";
+			for (Map.Entry<String, double[]> t : sc.byTarget.entrySet()) {
+				double[] len = t.getValue();
+				for (int i = 0; i < len.length; i++) {
+					if (len[i] == 0) continue;
+					out.format("%s\t%s\t%s\t%d\t%s\t%s\n", this.name, sc.source, t.getKey(), i,
+							sc.exact() ? String.format("%.0f", len[i]) : String.format("%.1f", len[i]), method);
+				}
+			}
+		}
+	}
+
+	public String toString() {
+		return String.format("PathCountTable %s: %.0f paths up to length %d from %d sources (%d estimated)",
+				this.name, this.total(), this.maxLength, this.sources.size(), this.estimated());
+	}
+
+	/**
+	 * Counts of paths from one source, by target and length.
+	 * As a PathSink, counts each path it receives.
+	 */
+	public static class SourceCounts implements PathSink {
+		protected final String source;
+		protected final boolean exact;
+		protected final int maxLength;
+		// target -> counts indexed by length
+		protected final TreeMap<String, double[]> byTarget = new TreeMap<String, double[]>();
+
+		/**
+		 * @param source
+		 * @param maxLength	longest path, in edges
+		 * @param exact	are these counts exact?
+		 */
+		public SourceCounts(String source, int maxLength, boolean exact) {
+			this.source=source;
+			this.maxLength=maxLength;
+			this.exact=exact;
+		}
+
+		/**
+		 * Counts a path once for each of its termini.
+		 */
+		public void accept(Path p, String label) {
+			int len = p.edgeLength();
+			for (String t : p.termini()) {
+				this.add(t, len, 1);
+			}
+		}
+
+		/**
+		 * Adds to the number of paths to a target with the given length.
+		 * @param target
+		 * @param length	in edges
+		 * @param count	may be fractional for estimates
+		 */
+		public void add(String target, int length, double count) {
+			double[] len = this.byTarget.get(target);
+			if (len == null) {
+				len = new double[this.maxLength+1];
+				this.byTarget.put(target, len);
+			}
+			len[length] += count;
+		}
+
+		public String source() {
+			return this.source;
+		}
+
+		public boolean exact() {
+			return this.exact;
+		}
+
+		/**
+		 * Target -> number of paths of each length.
+		 * @return
+		 */
+		public Map<String, double[]> byTarget() {
+			return Collections.unmodifiableMap(this.byTarget);
+		}
+
+		/**
+		 * Number of paths of each length, over all targets.
+		 * @return
+		 */
+		public double[] byLength() {
+			double[] tot = new double[this.maxLength+1];
+			for (double[] len : this.byTarget.values()) {
+				for (int i = 0; i < tot.length; i++) {
+					tot[i] += len[i];
+				}
+			}
+			return tot;
+		}
+
+		public double total() {
+			double tot = 0;
+			for (double c : this.byLength()) {
+				tot += c;
+			}
+			return tot;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package structures;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A PathSink that counts paths instead of keeping them,
+ * optionally passing them on to another sink.
+ * 
+ * Paths aren't compared, so the counts only match a PathManager's size
+ * if no equal paths are sent. (Pathfinders send each path once.)
+ */
+public class PathCounter implements PathSink {
+
+	/*
+	 * Sink to pass paths along to, if any.
+	 */
+	protected final PathSink next;
+	
+	protected long count=0;
+	protected HashMap<String, Long> labelCounts=new HashMap<String, Long>();
+	
+	/**
+	 * Counts paths and throws them away.
+	 */
+	public PathCounter() {
+		this(null);
+	}
+	
+	/**
+	 * Counts paths and passes them on.
+	 * @param next	sink that receives the paths (or null)
+	 */
+	public PathCounter(PathSink next) {
+		this.next=next;
+	}
+	
+	public void accept(Path p, String label) {
+		this.count++;
+		Long c = this.labelCounts.get(label);
+		this.labelCounts.put(label, c == null ? 1L : c+1);
+		if (this.next != null) this.next.accept(p, label);
+	}
+	
+	/**
+	 * Total number of paths received.
+	 * @return
+	 */
+	public long count() {
+		return this.count;
+	}
+	
+	/**
+	 * Number of paths received with the given label.
+	 * @param label
+	 * @return
+	 */
+	public long count(String label) {
+		Long c = this.labelCounts.get(label);
+		return c == null ? 0 : c;
+	}
+	
+	/**
+	 * Label -> number of paths.
+	 * @return
+	 */
+	public Map<String, Long> counts() {
+		return this.labelCounts;
+	}
+	
+	public String toString() {
+		return String.format("PathCounter: %d paths %s", this.count, this.labelCounts.toString());
+	}
+}
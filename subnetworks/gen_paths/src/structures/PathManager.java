@@ -4,7 +4,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import filters.EdgeFilterManager;
@@ -16,12 +15,13 @@ import utilities.Enums.AddEdgeMode;
  * like look up the paths for each node.
  * 
  * Since paths are implemented as immutable, we store them in sets here.
+ * (For very many paths, a CompactPathManager keeps them in much less space.)
  * 
  * 
  * @author chasman
  *
  */
-public class PathManager {
+public class PathManager implements PathSink {
 	
 	/*
 	 * Now we have a default label for paths.
@@ -88,6 +88,25 @@ public class PathManager {
 		}
 	}
 	
+	/**
+	 * As a PathSink, just keeps the path.
+	 */
+	public void accept(Path p, String label) {
+		this.add(p, label);
+	}
+	
+	/**
+	 * Sends all of our paths to a sink, once per label.
+	 * @param sink
+	 */
+	public void copyTo(PathSink sink) {
+		for (String label : this.allLabels()) {
+			for (Path p : this.getPathsForLabel(label)) {
+				sink.accept(p, label);
+			}
+		}
+	}
+	
 	/**
 	 * Adds a path (with label!) to the PathManager.
 	 * @param p
@@ -136,10 +155,10 @@ public class PathManager {
 	 */
 	public PathManager reduce(Set<String> toHide, String label) {
 		PathManager newPM = new PathManager();
-		for (Entry<String, HashSet<Path>> entry : this.labelsToPaths.entrySet()) {
+		for (String plabel : this.allLabels()) {
 			// matching label? filter.
-			if (entry.getKey().equals(label)) {
-				for (Path p : entry.getValue()) {
+			if (plabel.equals(label)) {
+				for (Path p : this.getPathsForLabel(plabel)) {
 					// only keep paths that don't begin with hidden hits
 					if (!toHide.contains(p.getNode(0))){
 						newPM.add(p, label);
@@ -147,7 +166,7 @@ public class PathManager {
 				}
 			} else {
 				// add all
-				newPM.addAll(entry.getValue(), entry.getKey());
+				newPM.addAll(this.getPathsForLabel(plabel), plabel);
 			}
 		}
 		return newPM;
@@ -228,7 +247,7 @@ public class PathManager {
 	 */
 	public static PathManager applyEdgeFilter(PathManager manager, EdgeFilterManager efm) {
 		PathManager accepted = new PathManager();
-		for (String label : manager.labelsToPaths.keySet()) {
+		for (String label : manager.allLabels()) {
 			for (Path p : manager.getPathsForLabel(label)) {
 				boolean accept = efm.accept(p.edges());
 				if (accept) {
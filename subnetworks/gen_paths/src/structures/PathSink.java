@@ -0,0 +1,19 @@
+package structures;
+
+/**
+ * Receives the paths found by a PathFinder, one at a time, as they're found.
+ * Each accepted path is sent once, after post-processing and edge filters.
+ * 
+ * A PathManager is a sink that just keeps them; other sinks can count
+ * them or write them out without keeping them around.
+ */
+public interface PathSink {
+
+	/**
+	 * Receives a path.
+	 * @param p	the path
+	 * @param label	name of the pathfinder that found it
+	 */
+	public void accept(Path p, String label);
+	
+}
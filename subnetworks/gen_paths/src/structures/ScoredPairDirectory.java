@@ -35,9 +35,9 @@ public class ScoredPairDirectory extends PairDirectory {
 	 * @param a
 	 * @param b
 	 * @param s
-	 * @return pre-existing score, if overwritten
+	 * @return pre-existing score, if overwritten; otherwise null
 	 */
-	protected double add(String a, String b, Sign s, double score) {
+	protected Double add(String a, String b, Sign s, double score) {
 		Sign overwrite = super.add(a, b, s);		
 		if (!this.scores.containsKey(a)) {
 			this.scores.put(a, new HashMap<String, Double>());
@@ -53,7 +53,7 @@ public class ScoredPairDirectory extends PairDirectory {
 	 * @param score
 	 * @return
 	 */
-	protected double add(String a, String b, double score) {
+	protected Double add(String a, String b, double score) {
 		return this.add(a, b, Sign.UNKNOWN, score); 
 	}
 	
@@ -143,10 +143,10 @@ public class ScoredPairDirectory extends PairDirectory {
 			try {
 				score = Double.parseDouble(sp[scoreCol]);
 			} catch (NumberFormatException nfe) {
-				throw new InvalidValueException(String.format("Bad score format: %f", sp[scoreCol]));
+				throw new InvalidValueException(String.format("Bad score format: %s", sp[scoreCol]));
 			}
 			
-			double over = pairs.add(nodeA, nodeB, sign, score);	
+			pairs.add(nodeA, nodeB, sign, score);	
 		}
 
 		return pairs;	
@@ -31,7 +31,8 @@ public class Subgraph {
 		this.toString = this.buildString();
 		this.nodes=new HashSet<String>(nodes);	
 		for (Edge e : edges) {
-			this.nodes.addAll(e.nodes());
+			this.nodes.add(e.i());
+			this.nodes.add(e.j());
 		}
 	}
 	
@@ -41,7 +42,8 @@ public class Subgraph {
 		this.toString = this.buildString();
 		this.nodes=new HashSet<String>();
 		for (Edge e : edges) {
-			nodes.addAll(e.nodes());
+			nodes.add(e.i());
+			nodes.add(e.j());
 		}
 	}
 	
@@ -12,7 +12,7 @@ public class Enums {
 		TARGET_IN_PATH, 	// Include edge only if its target is in a path
 		SOURCE_IN_PATH; // Include edge only if its source is in a path
 	}
-
+	
 	public enum Sign {
 		POSITIVE(1),
 		NEGATIVE(-1),
@@ -11,6 +11,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import structures.BranchyPath;
+import structures.CompactPathManager;
 import structures.Continuous;
 import structures.Edge;
 import structures.EdgeLibrary;
@@ -44,6 +45,7 @@ public class GamsPrinter {
 	protected Map<String, PairDirectory> pairDirs;
 
 	protected HashMap<Edge,String> eids;
+	// path IDs; null for a CompactPathManager, which numbers its own (see pathId)
 	protected HashMap<Path,String> pids;
 
 	protected static final int EL_COLS=20;	// 20 single elements per row
@@ -74,6 +76,11 @@ public class GamsPrinter {
 	 */
 	protected LabelMode labelMode=LabelMode.STRIP;
 
+	/*
+	 * Print the sets of positive and negative paths? Off by default.
+	 */
+	protected boolean pathSigns=false;
+
 	/**
 	 * @param orig	original BG network
 	 * @param pm	path manager
@@ -161,6 +168,16 @@ public class GamsPrinter {
 		this.labelMode=mode;
 	}
 
+	/**
+	 * Turns on the path sign sets (pospath, negpath) in printPathSets.
+	 * A path's sign is the product of its edges' signs. Branching paths
+	 * whose branches differ in sign have none, and go in mixpath instead.
+	 * @param pathSigns
+	 */
+	public void setPathSigns(boolean pathSigns) {
+		this.pathSigns=pathSigns;
+	}
+
 	/**
 	 * Print all node sets to stream.
 	 * @param stream
@@ -242,9 +259,8 @@ public class GamsPrinter {
 				Value type = this.edgeLibe.getValue(e, etype);
 				if (type != null && type.toString().equals(IN_CX)) {
 					// add other node 
-					for (String o : e.nodes()) {
-						members.add(gamsify(o));
-					}
+					members.add(gamsify(e.i()));
+					members.add(gamsify(e.j()));
 				}
 			}
 			// remove self
@@ -267,13 +283,9 @@ public class GamsPrinter {
 		Set<Edge> inCx = this.edgeLibe.get(etype, etype.legal(IN_CX));
 		HashMap<String,Double> sizes= new HashMap<String,Double>();
 		for (Edge e : inCx) {
-			for (String n : e.nodes()) {
-				// identify complexes that ARE in the candidate network
-				if (isCx.contains(n) && this.graph.contains(n) ) {
-					if (!sizes.containsKey(n)) sizes.put(n, 0.0);
-					sizes.put(n, sizes.get(n)+1.0);
-				}
-			}
+			// each end, once for a self-loop
+			this.countComplexMember(sizes, isCx, e.i());
+			if (!e.j().equals(e.i())) this.countComplexMember(sizes, isCx, e.j());
 		}
 
 		// parameter for each complex:  size of whole complex
@@ -283,6 +295,17 @@ public class GamsPrinter {
 		return;
 	}
 
+	/**
+	 * Counts a complex membership edge towards the size of a complex,
+	 * if n is a complex in the candidate network.
+	 */
+	private void countComplexMember(HashMap<String,Double> sizes, Set<String> isCx, String n) {
+		if (isCx.contains(n) && this.graph.contains(n) ) {
+			if (!sizes.containsKey(n)) sizes.put(n, 0.0);
+			sizes.put(n, sizes.get(n)+1.0);
+		}
+	}
+
 	/**
 	 * Prints ALL edge features.
 	 * Does not print sign by default.
@@ -399,19 +422,20 @@ public class GamsPrinter {
 	}
 	public void printPathSets(PrintStream stream, boolean printPathDirs, 
 			Set<String> hidden) {
-		// First, make the master path set.
-		HashSet<Path> allPaths = new HashSet<Path>();
-
-		// either add all paths, or only paths that don't begin
-		// with hidden hit.
+		// First, make the master path set: either all paths 
+		// (the path manager's own set, not a copy, so a CompactPathManager
+		// doesn't have to build them all at once), or only paths
+		// that don't begin with hidden hit.
+		Set<Path> allPaths;
 		if (hidden.size() > 0) {
+			allPaths = new HashSet<Path>();
 			for (Path p : this.pm.allPaths()) {
 				if (!hidden.contains(p.getNode(0))) {
 					allPaths.add(p);
 				}
 			}
 		} else {
-			allPaths.addAll(this.pm.allPaths());
+			allPaths = this.pm.allPaths();
 		}
 
 
@@ -427,9 +451,12 @@ public class GamsPrinter {
 
 		// print the path subsets
 		for (String label : this.pm.allLabels()) {
-			HashSet<Path> lpath = new HashSet<Path>(this.pm.getPathsForLabel(label));
+			Set<Path> lpath = this.pm.getPathsForLabel(label);
 			// keep non-hidden paths
-			lpath.retainAll(allPaths);
+			if (hidden.size() > 0) {
+				lpath = new HashSet<Path>(lpath);
+				lpath.retainAll(allPaths);
+			}
 
 			HashSet<String> lids = gamsifySet(lpath);
 
@@ -440,6 +467,36 @@ public class GamsPrinter {
 			stream.println(lset);
 		}		
 
+		// print the positive and negative paths, if asked,
+		// and the branching paths whose branches differ in sign
+		// (SIGNED pathfinders split these up; others may not)
+		if (this.pathSigns) {
+			HashSet<Path> pos = new HashSet<Path>(), neg = new HashSet<Path>(), mixed = new HashSet<Path>();
+			for (Path p : allPaths) {
+				switch(p.sign()) {
+				case POSITIVE: pos.add(p); break;
+				case NEGATIVE: neg.add(p); break;
+				default: 
+					if (p instanceof BranchyPath && ((BranchyPath) p).mixedSigns()) mixed.add(p);
+				}
+			}
+
+			String posset = GamsUtils.makeSetList(
+					"pospath(path)", "positively-signed paths", 
+					gamsifySet(pos), EL_COLS);
+			stream.println(posset);
+
+			String negset = GamsUtils.makeSetList(
+					"negpath(path)", "negatively-signed paths", 
+					gamsifySet(neg), EL_COLS);
+			stream.println(negset);
+
+			String mixset = GamsUtils.makeSetList(
+					"mixpath(path)", "branching paths whose branches differ in sign", 
+					gamsifySet(mixed), EL_COLS);
+			stream.println(mixset);
+		}
+
 		// print the "fwd" and "back" subsets, pairing edges and paths
 		// do order (e,p) because we'll likely have more p than e.
 		if (printPathDirs) {
@@ -542,9 +599,8 @@ public class GamsPrinter {
 				// add gamsified representation
 				for (Edge e : addEdges) {					
 					edges.get(subname).add(gamsify(e));
-					for (String n : e.nodes()) {
-						nodes.get(subname).add(gamsify(n));
-					}
+					nodes.get(subname).add(gamsify(e.i()));
+					nodes.get(subname).add(gamsify(e.j()));
 				}								
 
 			}
@@ -790,7 +846,7 @@ public class GamsPrinter {
 		if (o instanceof Edge) {
 			orig = eids.get((Edge) o);
 		} else if (o instanceof Path) {
-			orig = pids.get((Path) o);
+			orig = this.pathId((Path) o);
 		}
 
 		// null item wasn't gamsified previously?
@@ -895,11 +951,25 @@ public class GamsPrinter {
 
 
 	/**
-	 * Makes unique IDs for the paths in a PathManager
+	 * Gets a path's unique ID: p0, p1, ... in the order of pm.allPaths().
+	 * @param p
+	 * @return	the ID, or null if the path isn't in the path manager
+	 */
+	protected String pathId(Path p) {
+		if (this.pids != null) return this.pids.get(p);
+		int id = ((CompactPathManager) this.pm).indexOf(p);
+		return id < 0 ? null : String.format("p%d", id);
+	}
+
+	/**
+	 * Makes unique IDs for the paths in a PathManager.
+	 * A CompactPathManager can tell us where a path is in allPaths(),
+	 * so we don't keep a map (or the paths) for it: returns null.
 	 * 
 	 * @return
 	 */
 	protected static HashMap<Path, String> makeUniquePathIds(PathManager pm) {
+		if (pm instanceof CompactPathManager) return null;
 		HashMap<Path, String> map = new HashMap<Path, String>();
 		int i=0;
 		for (Path p : pm.allPaths()) {
@@ -1,6 +1,8 @@
 package utilities;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -11,6 +13,7 @@ import structures.EdgeLibrary;
 import structures.Feature;
 import structures.Graph;
 import structures.NodeLibrary;
+import structures.Graph.RType;
 import structures.Value;
 import filters.Filter;
 
@@ -34,6 +37,9 @@ public class GraphUtils {
 	 */
 	public enum GraphFeature {
 		DEGREE(Element.NODE),
+		IN_DEGREE(Element.NODE),
+		OUT_DEGREE(Element.NODE),
+		UNDIRECTED_DEGREE(Element.NODE),
 		SELF_LOOP(Element.EDGE);
 		
 		private final Element el;
@@ -50,6 +56,12 @@ public class GraphUtils {
 						Value.Type.CONTINUOUS, 
 						new Value[]{Continuous.makeValue(0), Continuous.makeValue(Double.MAX_VALUE)},
 						"graph node degree", "calculated from graph");
+			} else if (type.endsWith("_DEGREE")) {
+				String kind = type.substring(0, type.indexOf("_DEGREE")).toLowerCase();
+				return new Feature(kind + "_degree", 
+						Value.Type.CONTINUOUS, 
+						new Value[]{Continuous.makeValue(0), Continuous.makeValue(Double.MAX_VALUE)},
+						"graph node " + kind + " degree", "calculated from graph");
 			} else if (type.equals(SELF_LOOP)) {
 				return new Feature("self_loop", 
 						Value.Type.DISCRETE, 
@@ -180,6 +192,9 @@ public class GraphUtils {
 			"Request for unimplemented graph feature " + feat.name();
 		switch(gf) {
 		case DEGREE: return getDegree(node, g);
+		case IN_DEGREE: return getDegree(node, RType.INCOMING, g);
+		case OUT_DEGREE: return getDegree(node, RType.OUTGOING, g);
+		case UNDIRECTED_DEGREE: return getDegree(node, RType.UNDIRECTED, g);
 		}		
 		return null;
 	}
@@ -187,6 +202,15 @@ public class GraphUtils {
 	protected static Value getDegree(String node, Graph g) {
 		Continuous deg = Continuous.makeValue(g.degree(node));
 		return deg;
+	}
+
+	/**
+	 * Number of distinct neighbors the node has in one kind of 
+	 * relationship (e.g., number of regulators for INCOMING.)
+	 */
+	protected static Value getDegree(String node, RType type, Graph g) {
+		Continuous deg = Continuous.makeValue(g.degree(node, type));
+		return deg;
 	}		
 	
 	public static Value getValue(Edge edge, Feature feat, Graph g) {
@@ -204,5 +228,46 @@ public class GraphUtils {
 		return val;
 	}
 	
+	/**
+	 * Breadth-first search from a set of nodes at once, following only the
+	 * given relationship types (e.g., OUTGOING and UNDIRECTED to go forward,
+	 * INCOMING and UNDIRECTED to go backward.)
+	 * 
+	 * @param g
+	 * @param from	nodes at distance 0 (those not in the graph are ignored)
+	 * @param follow	relationship types to follow out of each node
+	 * @param bound	stop after this many edges
+	 * @return	node -> distance (in edges) from the nearest of "from", 
+	 * 			for nodes within the bound
+	 */
+	public static HashMap<String, Integer> distances(Graph g, Collection<String> from, 
+			RType[] follow, int bound) {
+		HashMap<String, Integer> dist = new HashMap<String, Integer>();
+
+		ArrayList<String> frontier = new ArrayList<String>();
+		for (String n : from) {
+			if (g.contains(n) && !dist.containsKey(n)) {
+				dist.put(n, 0);
+				frontier.add(n);
+			}
+		}
+
+		for (int d = 1; d <= bound && !frontier.isEmpty(); d++) {
+			ArrayList<String> next = new ArrayList<String>();
+			for (String v : frontier) {
+				for (RType type : follow) {
+					for (String u : g.neighborView(v, type)) {
+						if (!dist.containsKey(u)) {
+							dist.put(u, d);
+							next.add(u);
+						}
+					}
+				}
+			}
+			frontier = next;
+		}
+		return dist;
+	}
+	
 	
 }